@@ -0,0 +1,55 @@
+package ar.edu.itba;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * Builds random 24 bit cover images in memory, so benchmarks do not depend on image files.
+ */
+public final class BenchmarkImages {
+
+    private BenchmarkImages() {
+    }
+
+    /**
+     * @param megapixels Approximate number of pixels, in millions. The image is square.
+     */
+    public static Image create(double megapixels) {
+        var side = (int) Math.ceil(Math.sqrt(megapixels * 1_000_000));
+        return create(side, side);
+    }
+
+    public static Image create(int width, int height) {
+        var rowSize = (width * 24 + 31) / 32 * 4;
+        var bodySize = rowSize * height;
+        var bytes = new byte[Image.HEADER_SIZE + bodySize];
+        new Random(width * 31L + height).nextBytes(bytes);
+
+        var header = ByteBuffer.wrap(bytes, 0, Image.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put((byte) 'B').put((byte) 'M')
+          .putInt(bytes.length)
+          .putInt(0)
+          .putInt(Image.HEADER_SIZE)
+          .putInt(40)
+          .putInt(width)
+          .putInt(height)
+          .putShort((short) 1)
+          .putShort((short) 24)
+          .putInt(0)
+          .putInt(bodySize)
+          .putInt(2835)
+          .putInt(2835)
+          .putInt(0)
+          .putInt(0);
+
+        try {
+            return new Image(new ByteArrayInputStream(bytes));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package ar.edu.itba;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageBenchmark {
+
+    @Param({"1", "10", "100"})
+    public double megapixels;
+
+    private File source;
+    private File target;
+    private Image image;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        source = Files.createTempFile("benchmark-source", ".bmp").toFile();
+        target = Files.createTempFile("benchmark-target", ".bmp").toFile();
+        image = BenchmarkImages.create(megapixels);
+        image.save(source);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(source.toPath());
+        Files.deleteIfExists(target.toPath());
+    }
+
+    @Benchmark
+    public Image open() throws IOException {
+        return Image.open(source);
+    }
+
+    @Benchmark
+    public Image load() throws IOException {
+        return Image.load(source.getPath());
+    }
+
+    @Benchmark
+    public File save() throws IOException {
+        return image.save(target);
+    }
+}
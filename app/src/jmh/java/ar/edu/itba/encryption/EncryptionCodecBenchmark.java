@@ -0,0 +1,75 @@
+package ar.edu.itba.encryption;
+
+import ar.edu.itba.config.EncryptionAlgorithmType;
+import ar.edu.itba.config.EncryptionMode;
+import com.google.common.io.ByteStreams;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every supported algorithm and mode combination, with keys served from the derived key cache after the first call.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncryptionCodecBenchmark {
+
+    private static final String PASSWORD = "benchmark";
+
+    /** Algorithm and mode, GCM is only available for AES and ChaCha20-Poly1305 has no modes */
+    @Param({
+      "AES128/ECB", "AES128/CBC", "AES128/CFB", "AES128/OFB", "AES128/GCM",
+      "AES192/ECB", "AES192/CBC", "AES192/CFB", "AES192/OFB", "AES192/GCM",
+      "AES256/ECB", "AES256/CBC", "AES256/CFB", "AES256/OFB", "AES256/GCM",
+      "_3DES/ECB", "_3DES/CBC", "_3DES/CFB", "_3DES/OFB",
+      "CHACHA20/GCM",
+    })
+    public String cipher;
+
+    @Param({"1024", "1048576"})
+    public int size;
+
+    private EncryptionCodec codec;
+    private byte[] plaintext;
+    private byte[] ciphertext;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        var parts = cipher.split("/");
+        codec = new EncryptionCodec(EncryptionAlgorithmType.valueOf(parts[0]), EncryptionMode.valueOf(parts[1]));
+        plaintext = new byte[size];
+        new Random(size).nextBytes(plaintext);
+        ciphertext = codec.encrypt(plaintext, PASSWORD);
+    }
+
+    @Benchmark
+    public byte[] encrypt() {
+        return codec.encrypt(plaintext, PASSWORD);
+    }
+
+    @Benchmark
+    public byte[] decrypt() {
+        return codec.decrypt(ciphertext, PASSWORD);
+    }
+
+    @Benchmark
+    public long encryptStream() throws IOException {
+        try (var stream = codec.encrypt(new ByteArrayInputStream(plaintext), PASSWORD)) {
+            return ByteStreams.exhaust(stream);
+        }
+    }
+
+    /** Derives the key on every call, which is the cost the cache saves */
+    @Benchmark
+    public byte[] encryptUncached() {
+        EncryptionCodec.keyCache().clear();
+        return codec.encrypt(plaintext, PASSWORD);
+    }
+}
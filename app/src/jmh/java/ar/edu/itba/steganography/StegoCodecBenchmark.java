@@ -0,0 +1,74 @@
+package ar.edu.itba.steganography;
+
+import ar.edu.itba.BenchmarkImages;
+import ar.edu.itba.Image;
+import ar.edu.itba.steganography.exceptions.SecretTooLargeException;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes and decodes payloads that fill a given share of the cover image capacity.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StegoCodecBenchmark {
+
+    @Param({"LSB1", "LSB4", "LSBI"})
+    public String method;
+
+    @Param({"1", "10", "100"})
+    public double megapixels;
+
+    @Param({"0.1", "0.5", "1.0"})
+    public double fill;
+
+    private StegoCodec codec;
+    private Image image;
+    private byte[] secret;
+    private ByteBuffer decoded;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SecretTooLargeException {
+        codec = switch (method) {
+            case "LSB1" -> new LSBNCodec(1);
+            case "LSB4" -> new LSBNCodec(4);
+            case "LSBI" -> new LSBICodec();
+            default -> throw new IllegalArgumentException("Unknown method " + method);
+        };
+        image = BenchmarkImages.create(megapixels);
+        secret = new byte[(int) Math.max(1, codec.capacity(image) * fill)];
+        new Random(secret.length).nextBytes(secret);
+        // Decode benchmarks read back a complete message
+        image = codec.encode(secret, image);
+        decoded = ByteBuffer.allocateDirect(secret.length);
+    }
+
+    @Benchmark
+    public Image encode() throws SecretTooLargeException {
+        return codec.encode(secret, image);
+    }
+
+    @Benchmark
+    public byte[] decode() {
+        return codec.decode(image);
+    }
+
+    @Benchmark
+    public byte[] decodeRange() {
+        return codec.decode(image, 0, secret.length);
+    }
+
+    @Benchmark
+    public ByteBuffer decodeIntoBuffer() {
+        // Reuses the same buffer on every call, so nothing is allocated for the decoded bytes
+        codec.decode(image, 0, decoded.clear());
+        return decoded;
+    }
+}
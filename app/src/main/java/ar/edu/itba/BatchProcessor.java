@@ -0,0 +1,299 @@
+package ar.edu.itba;
+
+import ar.edu.itba.compression.CompressionAlgorithm;
+import ar.edu.itba.config.BatchConfig;
+import ar.edu.itba.config.ProgramConfig;
+import ar.edu.itba.config.SteganographyAlgorithmType;
+import ar.edu.itba.encryption.EncryptionAlgorithm;
+import ar.edu.itba.steganography.exceptions.SecretTooLargeException;
+
+import com.google.common.io.ByteSource;
+import com.google.common.io.Closer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs an embed or extract over many images inside a single JVM.
+ * Every image is processed with every requested method, each pair being an independent job on a worker pool, or
+ * going through a {@link Pipeline} that overlaps reading, encryption, embedding and writing across jobs. Either way
+ * jobs only start once their estimated footprint fits in the {@link MemoryBudget}.
+ */
+public class BatchProcessor {
+    /** Capacity of the queue in front of every pipeline stage */
+    private static final int PIPELINE_QUEUE_DEPTH = 4;
+    /** Virtual threads of every I/O stage of a pipeline, enough to keep a disk busy with requests */
+    private static final int PIPELINE_IO_WORKERS = 4;
+
+    private record Result(File image, SteganographyAlgorithmType method, File output, long nanos, Exception error) {
+    }
+
+    /** A job going through the pipeline, filled in as it goes from stage to stage */
+    private final class Job {
+        private final File image;
+        private final SteganographyAlgorithmType method;
+        private final FileCodec codec;
+        private final Closer closer = Closer.create();
+        /** When the job got into the budget and started reading, time waiting before that is not counted */
+        private long start;
+        /** Bytes taken from the memory budget, given back when the job finishes */
+        private long reserved;
+        private Image stegoImage;
+        private ByteSource message;
+        private FileCodec.ExtractedFile extracted;
+        /** Read by the printing thread while other jobs are still running */
+        private volatile Result result;
+
+        private Job(File image, SteganographyAlgorithmType method, FileCodec codec) {
+            this.image = image;
+            this.method = method;
+            this.codec = codec;
+        }
+
+        private void finish(File output, Exception error) {
+            result = new Result(image, method, output, System.nanoTime() - start, error);
+            budget.release(reserved);
+            reserved = 0;
+            stegoImage = null;
+            message = null;
+            extracted = null;
+            try {
+                closer.close();
+            } catch (IOException e) {
+                // Only temporary files are left behind
+            }
+        }
+    }
+
+    private final BatchConfig config;
+    private final Map<SteganographyAlgorithmType, FileCodec> codecs = new EnumMap<>(SteganographyAlgorithmType.class);
+    /** Set when the method of every image is detected instead of given */
+    private final MethodDetector detector;
+    private final MemoryBudget budget;
+    /** Size of the message that every embed writes, -1 when extracting */
+    private long messageSize = -1;
+
+    public BatchProcessor(BatchConfig config, EncryptionAlgorithm encryptionAlgorithm) {
+        this.config = config;
+        // Codecs keep no per-call state, so a single instance per method serves every worker
+        for (var method : config.stegs()) {
+            codecs.put(method, new FileCodec(
+              Main.createStegoCodec(method),
+              encryptionAlgorithm,
+              CompressionAlgorithm.of(config.compression())
+            ));
+        }
+        this.detector = config.stegs().isEmpty()
+          ? new MethodDetector(encryptionAlgorithm, CompressionAlgorithm.of(config.compression()))
+          : null;
+        this.budget = new MemoryBudget(config.memoryBudget());
+    }
+
+    private ExecutorService createExecutor() {
+        return config.threads() == 0
+          ? Executors.newVirtualThreadPerTaskExecutor()
+          : Executors.newFixedThreadPool(config.threads());
+    }
+
+    private static String baseName(File image) {
+        var name = image.getName();
+        var dot = name.lastIndexOf('.');
+        return dot == -1 ? name : name.substring(0, dot);
+    }
+
+    /**
+     * @return The estimated footprint of a job, which it takes from the memory budget while it runs.
+     */
+    private long footprint(File image, SteganographyAlgorithmType method) throws IOException {
+        return method == null ? detector.footprint(image) : codecs.get(method).footprint(image, messageSize);
+    }
+
+    private Result detectAndExtract(File image) {
+        var start = System.nanoTime();
+        long reserved = 0;
+        try {
+            reserved = budget.acquire(footprint(image, null));
+            start = System.nanoTime();
+            var detection = detector.extract(
+              image,
+              new File(config.outputDirectory(), "extracted-" + baseName(image)),
+              config.password()
+            );
+            return new Result(image, detection.method(), detection.output(), System.nanoTime() - start, null);
+        } catch (Exception e) {
+            return new Result(image, null, null, System.nanoTime() - start, e);
+        } finally {
+            budget.release(reserved);
+        }
+    }
+
+    private File embedOutput(File image, SteganographyAlgorithmType method) {
+        return new File(config.outputDirectory(), baseName(image) + "-" + method + ".bmp");
+    }
+
+    private File extractOutput(File image, SteganographyAlgorithmType method) {
+        return new File(config.outputDirectory(), "extracted-" + baseName(image) + "-" + method);
+    }
+
+    private Result process(File image, SteganographyAlgorithmType method) {
+        var codec = codecs.get(method);
+        var start = System.nanoTime();
+        long reserved = 0;
+        try {
+            reserved = budget.acquire(footprint(image, method));
+            start = System.nanoTime();
+            File output;
+            if (config.embed()) {
+                output = codec.embed(config.secretMessage(), image, embedOutput(image, method), config.password());
+            } else {
+                output = codec.extract(image, extractOutput(image, method), config.password());
+            }
+            return new Result(image, method, output, System.nanoTime() - start, null);
+        } catch (Exception e) {
+            return new Result(image, method, null, System.nanoTime() - start, e);
+        } finally {
+            budget.release(reserved);
+        }
+    }
+
+    /**
+     * Builds the stages of a pipelined run. Embedding reads the cover, compresses and encrypts the secret, embeds it
+     * and writes the stego image. Extracting reads the image, decodes the message, decrypts and decompresses it and
+     * writes the file.
+     */
+    private Pipeline<Job> createPipeline() {
+        var cpuThreads = config.threads() == 0 ? Runtime.getRuntime().availableProcessors() : config.threads();
+        var pipeline = new Pipeline<Job>(cpuThreads, PIPELINE_QUEUE_DEPTH, (job, e) -> job.finish(null, e));
+        pipeline.ioStage("read", PIPELINE_IO_WORKERS, job -> {
+            // Readers wait here while the budget is full, which holds back every stage after them
+            job.reserved = budget.acquire(footprint(job.image, job.method));
+            job.start = System.nanoTime();
+            job.stegoImage = Image.open(job.image);
+            job.stegoImage.load();
+        });
+        if (config.embed()) {
+            return pipeline
+              .cpuStage("prepare", job -> job.message = job.codec.prepareMessage(config.secretMessage(), config.password(), job.closer))
+              .cpuStage("embed", job -> job.codec.embedMessage(job.message, job.stegoImage))
+              .ioStage("write", PIPELINE_IO_WORKERS,
+                job -> job.finish(FileCodec.saveStegoImage(job.stegoImage, embedOutput(job.image, job.method)), null));
+        }
+        return pipeline
+          .cpuStage("decode", job -> {
+              job.message = job.codec.decodeMessage(job.stegoImage, job.closer);
+              job.stegoImage = null;
+          })
+          .cpuStage("unpack", job -> job.extracted = job.codec.unpackMessage(job.message, config.password(), job.closer))
+          .ioStage("write", PIPELINE_IO_WORKERS,
+            job -> job.finish(FileCodec.writeExtracted(job.extracted, extractOutput(job.image, job.method)), null));
+    }
+
+    private void printMemory() {
+        System.out.printf("Estimated memory of the jobs running at once peaked at %d of %d MB%n",
+          budget.peak() >> 20, budget.budget() >> 20);
+    }
+
+    /**
+     * Prints the result of a job.
+     * @return Whether the job succeeded.
+     */
+    private static boolean print(Result result) {
+        var millis = result.nanos() / 1_000_000;
+        if (result.error() == null) {
+            System.out.printf("OK   %s [%s] -> %s (%d ms)%n",
+              result.image().getName(), result.method(), result.output().getName(), millis);
+            return true;
+        }
+        System.out.printf("FAIL %s [%s]: %s (%d ms)%n",
+          result.image().getName(),
+          result.method() == null ? ProgramConfig.AUTO_STEG : result.method(),
+          result.error().getMessage(),
+          millis);
+        return false;
+    }
+
+    /**
+     * Runs every job through the pipeline and prints one line per job, in submission order, followed by the totals
+     * and by how busy every stage was.
+     * @return The number of failed jobs.
+     */
+    private int runPipelined() throws InterruptedException {
+        var start = System.nanoTime();
+        var jobs = new ArrayList<Job>();
+        for (var image : config.images()) {
+            for (var method : config.stegs()) {
+                jobs.add(new Job(image, method, codecs.get(method)));
+            }
+        }
+
+        var pipeline = createPipeline();
+        var failures = new int[1];
+        var printed = new int[1];
+        pipeline.run(jobs, job -> {
+            // Jobs finish out of order, print every one as soon as the jobs before it are printed
+            while (printed[0] < jobs.size() && jobs.get(printed[0]).result != null) {
+                if (!print(jobs.get(printed[0]++).result)) {
+                    failures[0]++;
+                }
+            }
+        });
+
+        System.out.printf("%d of %d jobs succeeded in %d ms%n",
+          jobs.size() - failures[0], jobs.size(), (System.nanoTime() - start) / 1_000_000);
+        printMemory();
+        Pipeline.print(pipeline.statistics(), System.out);
+        return failures[0];
+    }
+
+    /**
+     * Processes every job and prints one line per job, in submission order, followed by the totals.
+     * @return The number of failed jobs.
+     */
+    public int run() throws IOException, InterruptedException, SecretTooLargeException {
+        if (config.embed()) {
+            // The same secret goes into every image
+            messageSize = codecs.values().iterator().next().messageSize(config.secretMessage());
+        }
+        if (config.pipelined()) {
+            return runPipelined();
+        }
+        var start = System.nanoTime();
+        var futures = new ArrayList<Future<Result>>();
+        try (var executor = createExecutor()) {
+            for (var image : config.images()) {
+                if (detector != null) {
+                    futures.add(executor.submit(() -> detectAndExtract(image)));
+                }
+                for (var method : config.stegs()) {
+                    futures.add(executor.submit(() -> process(image, method)));
+                }
+            }
+
+            var failures = 0;
+            for (var future : futures) {
+                Result result;
+                try {
+                    result = future.get();
+                } catch (ExecutionException e) {
+                    // process catches everything it can recover from, so this is a programming error
+                    throw new IllegalStateException(e.getCause());
+                }
+                if (!print(result)) {
+                    failures++;
+                }
+            }
+
+            System.out.printf("%d of %d jobs succeeded in %d ms%n",
+              futures.size() - failures, futures.size(), (System.nanoTime() - start) / 1_000_000);
+            printMemory();
+            return failures;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package ar.edu.itba;
+
+import ar.edu.itba.config.SteganographyAlgorithmType;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Capacity of every cover image in a library, for each steganography method.
+ * Capacities are computed from the BMP headers alone and persisted next to the covers, so later scans only read the
+ * headers of files that changed. Looking up the smallest cover that fits a message is a binary search.
+ */
+public class CoverIndex {
+    public static final String INDEX_FILE_NAME = ".stegobmp-index";
+    private static final String INDEX_VERSION = "# stegobmp cover index v1";
+    private static final SteganographyAlgorithmType[] METHODS = SteganographyAlgorithmType.values();
+
+    /**
+     * @param capacities Capacity in bytes for each method, indexed by ordinal. 0 if the method cannot use the cover.
+     */
+    public record Entry(Path cover, long length, long lastModified, long[] capacities) {
+        public long capacity(SteganographyAlgorithmType method) {
+            return capacities[method.ordinal()];
+        }
+    }
+
+    /** Covers sorted by capacity, with the capacities in a parallel array for the binary search */
+    private record SortedCovers(long[] capacities, Entry[] entries) {
+    }
+
+    private final Path library;
+    private final List<Entry> entries;
+    private final Map<SteganographyAlgorithmType, SortedCovers> byMethod = new EnumMap<>(SteganographyAlgorithmType.class);
+
+    private CoverIndex(Path library, List<Entry> entries) {
+        this.library = library;
+        this.entries = entries;
+        for (var method : METHODS) {
+            var sorted = entries.stream()
+              .filter(e -> e.capacity(method) > 0)
+              .sorted(Comparator.comparingLong(e -> e.capacity(method)))
+              .toArray(Entry[]::new);
+            byMethod.put(method, new SortedCovers(
+              Arrays.stream(sorted).mapToLong(e -> e.capacity(method)).toArray(),
+              sorted
+            ));
+        }
+    }
+
+    private static Path indexFile(Path library) {
+        return library.resolve(INDEX_FILE_NAME);
+    }
+
+    private static Map<Path, Entry> readIndex(Path library) throws IOException {
+        var entries = new HashMap<Path, Entry>();
+        var indexFile = indexFile(library);
+        if (!Files.isRegularFile(indexFile)) {
+            return entries;
+        }
+        var lines = Files.readAllLines(indexFile, StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !lines.getFirst().equals(INDEX_VERSION)) {
+            // Written by another version, rebuild it from scratch
+            return entries;
+        }
+        for (var line : lines.subList(1, lines.size())) {
+            // length, last modified, one capacity per method and the path last, since it may contain tabs
+            var fields = line.split("\t", METHODS.length + 3);
+            if (fields.length != METHODS.length + 3) {
+                continue;
+            }
+            try {
+                var capacities = new long[METHODS.length];
+                for (int i = 0; i < METHODS.length; i++) {
+                    capacities[i] = Long.parseLong(fields[2 + i]);
+                }
+                var cover = library.resolve(fields[fields.length - 1]);
+                entries.put(cover, new Entry(cover, Long.parseLong(fields[0]), Long.parseLong(fields[1]), capacities));
+            } catch (NumberFormatException e) {
+                // Corrupt line, the cover is scanned again and the index rewritten
+            }
+        }
+        return entries;
+    }
+
+    private void write() throws IOException {
+        var indexFile = indexFile(library);
+        var temp = Files.createTempFile(library, INDEX_FILE_NAME, ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            writer.write(INDEX_VERSION);
+            writer.newLine();
+            for (var entry : entries) {
+                writer.write(entry.length() + "\t" + entry.lastModified());
+                for (var capacity : entry.capacities()) {
+                    writer.write("\t" + capacity);
+                }
+                writer.write("\t" + library.relativize(entry.cover()));
+                writer.newLine();
+            }
+        }
+        Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static Entry scan(Path cover) throws IOException {
+        var header = ImageHeader.read(cover.toFile());
+        var capacities = new long[METHODS.length];
+        for (var method : METHODS) {
+            try {
+                capacities[method.ordinal()] = Math.max(0, Main.createStegoCodec(method).capacity(header));
+            } catch (IllegalArgumentException e) {
+                // The method does not support this kind of image
+                capacities[method.ordinal()] = 0;
+            }
+        }
+        return new Entry(cover, Files.size(cover), Files.getLastModifiedTime(cover).toMillis(), capacities);
+    }
+
+    /**
+     * Loads the index of a library, reading the header of every cover that is new or changed since the index was
+     * written, and writes the index back if anything changed.
+     * @param library Directory searched recursively for bmp files.
+     */
+    public static CoverIndex update(File library) throws IOException {
+        var root = library.toPath();
+        var previous = readIndex(root);
+        var entries = new ArrayList<Entry>();
+        var changed = false;
+
+        List<Path> covers;
+        try (Stream<Path> files = Files.walk(root)) {
+            covers = files
+              .filter(Files::isRegularFile)
+              .filter(f -> f.getFileName().toString().toLowerCase().endsWith(".bmp"))
+              .sorted()
+              .toList();
+        }
+        for (var cover : covers) {
+            var known = previous.remove(cover);
+            if (known != null
+              && known.length() == Files.size(cover)
+              && known.lastModified() == Files.getLastModifiedTime(cover).toMillis()) {
+                entries.add(known);
+                continue;
+            }
+            changed = true;
+            try {
+                entries.add(scan(cover));
+            } catch (IOException e) {
+                System.err.println("Skipping " + cover + ": " + e.getMessage());
+            }
+        }
+        // Entries left over belong to covers that were deleted
+        changed |= !previous.isEmpty();
+
+        var index = new CoverIndex(root, entries);
+        if (changed || !Files.exists(indexFile(root))) {
+            index.write();
+        }
+        return index;
+    }
+
+    public List<Entry> entries() {
+        return entries;
+    }
+
+    /**
+     * Finds the smallest cover that can hold a message.
+     * @param messageSize Size of the message as embedded, see {@link FileCodec#messageSize(File)}.
+     * @return The cover, or empty if no cover is big enough.
+     */
+    public Optional<Entry> select(SteganographyAlgorithmType method, long messageSize) {
+        var covers = byMethod.get(method);
+        var position = Arrays.binarySearch(covers.capacities(), messageSize);
+        if (position < 0) {
+            position = -position - 1;
+        }
+        return position < covers.entries().length ? Optional.of(covers.entries()[position]) : Optional.empty();
+    }
+}
@@ -0,0 +1,107 @@
+package ar.edu.itba;
+
+import com.google.common.base.Optional;
+import com.google.common.io.ByteSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Contents of a file, read through a {@link FileChannel}. Files of at least {@link Image#MAPPING_THRESHOLD} bytes and up
+ * to 2 GB are memory mapped, so streaming them copies straight from the page cache into the reader's buffer.
+ */
+public class FileByteSource extends ByteSource {
+
+    /** Stream over a buffer, bulk reads copy directly out of it */
+    private static class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            var count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            var count = (int) Math.min(Math.max(n, 0), buffer.remaining());
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    private final File file;
+
+    public FileByteSource(File file) {
+        this.file = file;
+    }
+
+    @Override
+    public InputStream openStream() throws IOException {
+        var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        // A buffer cannot map more than 2 GB, larger files are read through the channel
+        if (channel.size() < Image.MAPPING_THRESHOLD || channel.size() > Integer.MAX_VALUE) {
+            return Channels.newInputStream(channel);
+        }
+        try (channel) {
+            // The mapping stays valid after the channel is closed
+            return new BufferInputStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    @Override
+    public Optional<Long> sizeIfKnown() {
+        return Optional.of(file.length());
+    }
+
+    @Override
+    public long size() {
+        return file.length();
+    }
+
+    /**
+     * Reads the whole file with as many channel reads as it takes.
+     */
+    @Override
+    public byte[] read() throws IOException {
+        try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            var size = channel.size();
+            if (size > Integer.MAX_VALUE - 8) {
+                throw new IOException("File " + file.getName() + " is too large to read into memory");
+            }
+            var contents = ByteBuffer.allocate((int) size);
+            while (contents.hasRemaining()) {
+                if (channel.read(contents) < 0) {
+                    throw new IOException("File " + file.getName() + " shrank while it was read");
+                }
+            }
+            return contents.array();
+        }
+    }
+}
@@ -1,66 +1,397 @@
 package ar.edu.itba;
 
+import ar.edu.itba.compression.CompressionAlgorithm;
+import ar.edu.itba.config.CompressionAlgorithmType;
 import ar.edu.itba.encryption.*;
 import ar.edu.itba.steganography.*;
 import ar.edu.itba.steganography.exceptions.*;
 import ar.edu.itba.utils.*;
+import com.google.common.base.Throwables;
+import com.google.common.io.ByteSink;
+import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closer;
+import com.google.common.io.FileBackedOutputStream;
+import com.google.common.io.MoreFiles;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.Arrays;
-import javax.imageio.ImageIO;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class FileCodec {
+    /** Compressed messages are kept in memory up to this size, and in a temporary file beyond it */
+    private static final int COMPRESSION_MEMORY_THRESHOLD = 1024 * 1024;
+    private static final int COMPRESSION_HEADER_SIZE = 8;
+    /**
+     * First field of a shard, where whole messages store a file length or a small negated compression id.
+     * A shard header is the marker, the payload id, the shard index, the shard count and the length of its slice.
+     */
+    private static final int SHARD_MARKER = Integer.MIN_VALUE;
+    private static final int SHARD_HEADER_SIZE = 4 + 8 + 4 + 4 + 4;
+    /** Messages split in shards are written out once, in memory up to this size and in a temporary file beyond it */
+    private static final int SHARDING_MEMORY_THRESHOLD = 16 * 1024 * 1024;
+    private static final SecureRandom PAYLOAD_IDS = new SecureRandom();
+    /**
+     * Messages and files handed from one stage of an embed or extract to the next are kept in memory up to this size,
+     * and in a temporary file beyond it
+     */
+    private static final int STAGED_MEMORY_THRESHOLD = 16 * 1024 * 1024;
+    /** Memory for the chunks, cipher and compression buffers that every embed or extract uses whatever its size */
+    private static final long BUFFER_FOOTPRINT = 4L * 1024 * 1024;
+    /** Extensions longer than this are taken as noise when probing an image for a message */
+    private static final int MAX_PROBED_EXTENSION_LENGTH = 32;
+
+    /**
+     * A file extracted from a stego image that was not written to its output yet. Its contents are in memory, or in
+     * a temporary file once they get large.
+     */
+    public record ExtractedFile(ByteSource contents, String extension) {
+    }
+
+    private record Shard(long payloadId, int index, int count, int length) {
+        byte[] toBytes() {
+            return ByteBuffer.allocate(SHARD_HEADER_SIZE)
+                    .putInt(SHARD_MARKER)
+                    .putLong(payloadId)
+                    .putInt(index)
+                    .putInt(count)
+                    .putInt(length)
+                    .array();
+        }
+
+        static Shard fromBytes(byte[] header) {
+            var buffer = ByteBuffer.wrap(header);
+            if (buffer.getInt() != SHARD_MARKER) {
+                throw new IllegalArgumentException("Image does not hold a shard");
+            }
+            var shard = new Shard(buffer.getLong(), buffer.getInt(), buffer.getInt(), buffer.getInt());
+            if (shard.count() <= 0 || shard.index() < 0 || shard.index() >= shard.count() || shard.length() < 0) {
+                throw new IllegalArgumentException("Invalid shard header");
+            }
+            return shard;
+        }
+    }
 
     private final EncryptionAlgorithm encryptionAlgorithm;
     private final StegoCodec steganographyAlgorithm;
+    private final CompressionAlgorithm compressionAlgorithm;
 
     public FileCodec(
             StegoCodec steganographyAlgorithm,
             EncryptionAlgorithm encryptionAlgorithm) {
+        this(steganographyAlgorithm, encryptionAlgorithm, null);
+    }
+
+    /**
+     * @param compressionAlgorithm Applied to messages before they are encrypted, null to embed them as they are.
+     * Messages are always decompressed when needed, whatever algorithm they were compressed with.
+     */
+    public FileCodec(
+            StegoCodec steganographyAlgorithm,
+            EncryptionAlgorithm encryptionAlgorithm,
+            CompressionAlgorithm compressionAlgorithm) {
         this.encryptionAlgorithm = encryptionAlgorithm;
         this.steganographyAlgorithm = steganographyAlgorithm;
+        this.compressionAlgorithm = compressionAlgorithm;
     }
 
     private boolean requiresEncryption() {
         return encryptionAlgorithm != null;
     }
 
-    public void encode(File input, File coverImage, File output, String password) {
-        String inputExtension = input
+    /**
+     * Compresses a message and prefixes it with the negated id of the algorithm and the compressed length.
+     * File lengths are never negative, which is how decoders tell compressed messages apart.
+     * @param closer Releases the compressed data once the message is no longer needed.
+     * @return The compressed message, or the original one if compressing does not make it smaller.
+     */
+    private ByteSource compress(ByteSource message, Closer closer) throws IOException {
+        var compressed = new FileBackedOutputStream(COMPRESSION_MEMORY_THRESHOLD);
+        closer.register(compressed::reset);
+        try (var out = compressionAlgorithm.compress(compressed)) {
+            message.copyTo(out);
+        }
+        var body = compressed.asByteSource();
+        if (COMPRESSION_HEADER_SIZE + body.size() >= message.size() || body.size() > Integer.MAX_VALUE) {
+            return message;
+        }
+        var header = new byte[COMPRESSION_HEADER_SIZE];
+        DataUtils.intToBytes(-compressionAlgorithm.type().id(), header, 0);
+        DataUtils.intToBytes((int) body.size(), header, 4);
+        return ByteSource.concat(ByteSource.wrap(header), body);
+    }
+
+    /**
+     * Builds the message that gets embedded: the length of the file, its contents and its extension.
+     * The message is compressed first if compression is enabled. When encryption is required it is then encrypted
+     * as it is read and prefixed with the ciphertext length.
+     * @throws SecretTooLargeException If a length does not fit in its 4 byte header, or the ciphertext is longer than
+     * the encryption algorithm accepts.
+     */
+    private ByteSource buildMessage(File input, String inputExtension, String password, Closer closer)
+            throws IOException, SecretTooLargeException {
+        if (input.length() > Integer.MAX_VALUE) {
+            throw lengthOverflow("secret", input.length());
+        }
+        var secret = new FileByteSource(input);
+        var header = new byte[4];
+        DataUtils.intToBytes((int) input.length(), header, 0);
+        var trailer = new byte[inputExtension.length() + 1];
+        DataUtils.stringToBytes(inputExtension, trailer, 0);
+
+        var message = ByteSource.concat(
+                ByteSource.wrap(header),
+                secret,
+                ByteSource.wrap(trailer));
+        if (compressionAlgorithm != null) {
+            message = compress(message, closer);
+        }
+        if (!requiresEncryption()) {
+            return message;
+        }
+
+        var plaintext = message;
+        var encryptedLength = encryptionAlgorithm.encryptedLength(plaintext.size());
+        if (encryptedLength > Integer.MAX_VALUE) {
+            throw lengthOverflow("encrypted secret", encryptedLength);
+        }
+        if (encryptedLength > encryptionAlgorithm.maxEncryptedLength()) {
+            throw new SecretTooLargeException("Authenticated encryption keeps the whole message in memory to extract it, "
+                    + "so the encrypted secret may take at most " + encryptionAlgorithm.maxEncryptedLength()
+                    + " bytes, but it takes " + encryptedLength + " bytes.");
+        }
+        var encryptedHeader = new byte[4];
+        DataUtils.intToBytes((int) encryptedLength, encryptedHeader, 0);
+        var encryptedBody = new ByteSource() {
+            @Override
+            public InputStream openStream() throws IOException {
+                return encryptionAlgorithm.encrypt(plaintext.openBufferedStream(), password);
+            }
+
+            @Override
+            public long size() {
+                return encryptedLength;
+            }
+        };
+        return ByteSource.concat(ByteSource.wrap(encryptedHeader), encryptedBody);
+    }
+
+    private static SecretTooLargeException lengthOverflow(String what, long length) {
+        return new SecretTooLargeException("Messages store their lengths in 4 bytes, so the " + what + " may take at most "
+                + Integer.MAX_VALUE + " bytes, but it takes " + length + " bytes.");
+    }
+
+    private static String extensionOf(File input) {
+        return input
                 .getName()
                 .substring(input.getName().lastIndexOf('.'));
+    }
 
-        var message = new byte[4 +
-                (int) input.length() +
-                inputExtension.length() +
-                1];
-
-        DataUtils.intToBytes((int) input.length(), message, 0);
-        DataUtils.fileToBytes(input, message, 4);
-        DataUtils.stringToBytes(
-                inputExtension,
-                message,
-                4 + (int) input.length());
-        if (requiresEncryption()) {
-            var encryptedBytes = encryptionAlgorithm.encrypt(message, password);
+    /**
+     * @return The number of bytes that embedding {@code input} writes into a cover image, encryption included.
+     */
+    public long messageSize(File input) throws IOException, SecretTooLargeException {
+        try (var closer = Closer.create()) {
+            return buildMessage(input, extensionOf(input), null, closer).size();
+        }
+    }
+
+    /**
+     * Estimates how much memory embedding into or extracting from an image takes at its peak, reading only the header
+     * of the image. Pixel data read into the heap or copied out of it counts whole. Mapped pixel data only counts for
+     * the pages an embed writes, since the rest is page cache the system can drop. Messages count up to the size kept
+     * in memory between stages, and authenticated extracts also count the ciphertext their cipher holds whole.
+     * @param messageSize The size {@link #messageSize} gives for the file to embed, encryption included, or -1 when
+     * extracting, which assumes the largest message the image can hold.
+     * @throws IllegalArgumentException If the steganography method does not support the image format.
+     */
+    public long footprint(File image, long messageSize) throws IOException {
+        var header = ImageHeader.read(image);
+        var bodySize = header.getBodySize();
+        var capacity = Math.max(steganographyAlgorithm.capacity(header), 1);
+        var extracting = messageSize < 0;
+        var message = extracting ? capacity : Math.min(messageSize, capacity);
 
-            message = new byte[4 + encryptedBytes.length];
-            DataUtils.intToBytes(encryptedBytes.length, message, 0);
-            System.arraycopy(encryptedBytes, 0, message, 4, encryptedBytes.length);
+        long pixels;
+        if (image.length() < Image.MAPPING_THRESHOLD || !image.canWrite()) {
+            pixels = bodySize;
+        } else if (extracting) {
+            pixels = 0;
+        } else {
+            // Every message byte takes the same share of the body, whatever the method
+            pixels = Math.min(bodySize, (long) Math.ceil((double) message * bodySize / capacity));
         }
+        // Extracting keeps both the message and the file it unpacks to
+        var staged = Math.min(message, STAGED_MEMORY_THRESHOLD) * (extracting ? 2 : 1);
+        if (extracting && requiresEncryption() && encryptionAlgorithm.isAuthenticated()) {
+            staged += Math.min(message, encryptionAlgorithm.maxEncryptedLength());
+        }
+        return pixels + staged + BUFFER_FOOTPRINT;
+    }
+
+    /**
+     * Embeds a file into a cover image.
+     * @return The stego image file. It always has the bmp extension, whatever extension {@code output} had.
+     */
+    public File embed(File input, File coverImage, File output, String password)
+            throws IOException, SecretTooLargeException {
+        try (var closer = Closer.create()) {
+            // Codecs may read the message more than once, and encryption with a random nonce differs on every read
+            var message = prepareMessage(input, password, closer);
+
+            var coverImageBuffer = Image.open(coverImage);
+            return saveStegoImage(embedMessage(message, coverImageBuffer), output);
+        }
+    }
+
+    /**
+     * Builds the message for a file and compresses and encrypts it right away, so that embedding it afterwards only
+     * copies bytes. First stage of an embed that runs in separate steps, as {@link BatchProcessor} pipelines do.
+     * @param closer Releases the message once it is no longer needed.
+     */
+    public ByteSource prepareMessage(File input, String password, Closer closer)
+            throws IOException, SecretTooLargeException {
+        var prepared = new FileBackedOutputStream(STAGED_MEMORY_THRESHOLD);
+        closer.register(prepared::reset);
+        try (prepared) {
+            buildMessage(input, extensionOf(input), password, closer).copyTo(prepared);
+        }
+        return prepared.asByteSource();
+    }
+
+    /**
+     * Embeds a message in a cover image, in place.
+     * @param message A message returned by {@link #prepareMessage}.
+     */
+    public Image embedMessage(ByteSource message, Image coverImage) throws SecretTooLargeException, IOException {
+        return steganographyAlgorithm.encode(message, coverImage);
+    }
+
+    /**
+     * Saves a stego image.
+     * @return The stego image file. It always has the bmp extension, whatever extension {@code output} had.
+     */
+    public static File saveStegoImage(Image stegoImage, File output) throws IOException {
+        var outputFile = new File(withoutExtension(output) + ".bmp");
+        stegoImage.save(outputFile);
+        return outputFile;
+    }
+
+    private static String withoutExtension(File file) {
+        var path = file.getAbsolutePath();
+        return path.lastIndexOf('.') != -1 ? path.substring(0, path.lastIndexOf('.')) : path;
+    }
+
+    /**
+     * Runs one task per item on a pool with a thread per core, and waits for all of them.
+     */
+    private static <T, R> List<R> runInParallel(List<T> items, ShardTask<T, R> task)
+            throws IOException, SecretTooLargeException {
+        var threads = Math.min(items.size(), Runtime.getRuntime().availableProcessors());
+        try (var executor = Executors.newFixedThreadPool(Math.max(threads, 1))) {
+            var futures = new ArrayList<Future<R>>();
+            for (int i = 0; i < items.size(); i++) {
+                var index = i;
+                futures.add(executor.submit(() -> task.run(index, items.get(index))));
+            }
+            var results = new ArrayList<R>();
+            for (var future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+            Throwables.throwIfInstanceOf(e.getCause(), SecretTooLargeException.class);
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    @FunctionalInterface
+    private interface ShardTask<T, R> {
+        R run(int index, T item) throws Exception;
+    }
+
+    /**
+     * Embeds a file split across several cover images, filling them in order. Each stego image holds a shard with
+     * a slice of the message, and the shards are embedded in parallel. Covers that are not needed are left unused.
+     * @param output Base name of the stego images, which are numbered from 1.
+     * @return The stego images, in shard order.
+     * @throws SecretTooLargeException If the covers together cannot hold the message.
+     */
+    public List<File> embedSharded(File input, List<File> coverImages, File output, String password)
+            throws IOException, SecretTooLargeException {
+        try (var closer = Closer.create()) {
+            var message = buildMessage(input, extensionOf(input), password, closer);
+            var messageSize = message.size();
+
+            // Plan the slices from the headers alone
+            var usedCovers = new ArrayList<File>();
+            var lengths = new ArrayList<Integer>();
+            long planned = 0;
+            long totalCapacity = 0;
+            for (var cover : coverImages) {
+                if (planned == messageSize) {
+                    break;
+                }
+                var room = steganographyAlgorithm.capacity(ImageHeader.read(cover)) - SHARD_HEADER_SIZE;
+                if (room <= 0) {
+                    continue;
+                }
+                totalCapacity += room;
+                var length = (int) Math.min(Math.min(room, messageSize - planned), Integer.MAX_VALUE);
+                usedCovers.add(cover);
+                lengths.add(length);
+                planned += length;
+            }
+            if (planned < messageSize) {
+                throw new SecretTooLargeException(totalCapacity, messageSize);
+            }
+
+            // Slices must all come from the same bytes, and encryption with a random nonce differs on every read
+            var materialized = new FileBackedOutputStream(SHARDING_MEMORY_THRESHOLD);
+            closer.register(materialized::reset);
+            try (materialized) {
+                message.copyTo(materialized);
+            }
+            var source = materialized.asByteSource();
+
+            var payloadId = PAYLOAD_IDS.nextLong();
+            var offsets = new long[lengths.size()];
+            for (int i = 1; i < offsets.length; i++) {
+                offsets[i] = offsets[i - 1] + lengths.get(i - 1);
+            }
+            var base = withoutExtension(output);
 
+            return runInParallel(usedCovers, (index, cover) -> {
+                var shard = new Shard(payloadId, index, lengths.size(), lengths.get(index));
+                var shardMessage = ByteSource.concat(
+                        ByteSource.wrap(shard.toBytes()),
+                        source.slice(offsets[index], shard.length()));
+                var stegoImage = steganographyAlgorithm.encode(shardMessage, Image.open(cover));
+                return stegoImage.save(new File(base + "-" + (index + 1) + ".bmp"));
+            });
+        }
+    }
+
+    public void encode(File input, File coverImage, File output, String password) {
         try {
-            var coverImageBuffer = new Image(new FileInputStream(coverImage));
-            var secretImage = steganographyAlgorithm.encode(
-                    message,
-                    coverImageBuffer);
-            var outputFile = new File(output.getAbsolutePath().substring(
-                    0,
-                    output.getAbsolutePath().lastIndexOf('.') != -1 ? output.getAbsolutePath().lastIndexOf('.')
-                            : output.getAbsolutePath().length())
-                    + ".bmp");
-            secretImage.save(outputFile);
+            var outputFile = embed(input, coverImage, output, password);
             System.err.println(
                     "Secret message encoded successfully as " + outputFile.getName());
         } catch (IOException e) {
@@ -72,58 +403,351 @@ public class FileCodec {
         }
     }
 
-    public void decode(File input, File output, String password) {
+    /**
+     * Checks whether an image looks like it holds a message embedded with this codec, decoding only the headers of
+     * the message. Images that pass may still fail to extract, but those that fail never hold a message.
+     */
+    public boolean holdsMessage(Image stegoImage) {
+        var capacity = steganographyAlgorithm.capacity(stegoImage);
+        if (capacity < 4) {
+            return false;
+        }
+        var header = DataUtils.bytesToInt(steganographyAlgorithm.decode(stegoImage, 0, 4), 0);
+        if (requiresEncryption()) {
+            return header > 0 && header <= capacity - 4;
+        }
+        if (header >= 0) {
+            // The file, a dot, at least one character and the terminator
+            if (header > capacity - 4 - 3) {
+                return false;
+            }
+            var trailer = steganographyAlgorithm.decode(
+                    stegoImage, 4 + header, (int) Math.min(MAX_PROBED_EXTENSION_LENGTH + 2, capacity - 4 - header));
+            if (trailer[0] != '.') {
+                return false;
+            }
+            for (int i = 1; i < trailer.length; i++) {
+                if (trailer[i] == 0) {
+                    return i > 1;
+                }
+                if (trailer[i] <= ' ' || trailer[i] > '~') {
+                    return false;
+                }
+            }
+            return false;
+        }
+        if (header == SHARD_MARKER || capacity < COMPRESSION_HEADER_SIZE) {
+            return false;
+        }
         try {
-            var secretImage = new Image(new FileInputStream(input));
-            var message = steganographyAlgorithm.decode(secretImage);
-            var messageLength = DataUtils.bytesToInt(message, 0);
-            System.out.println("Message length: " + messageLength);
+            if (CompressionAlgorithmType.fromId(-header) == CompressionAlgorithmType.NONE) {
+                return false;
+            }
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        var compressedLength = DataUtils.bytesToInt(steganographyAlgorithm.decode(stegoImage, 4, 4), 0);
+        return compressedLength > 0 && compressedLength <= capacity - COMPRESSION_HEADER_SIZE;
+    }
 
-            if (requiresEncryption()) {
-                var decryptedBytes = encryptionAlgorithm.decrypt(
-                        Arrays.copyOfRange(message, 4, 4 + messageLength),
-                        password);
+    private static int readHeader(DataInputStream message, String label) throws IOException {
+        var header = message.readInt();
+        if (header == SHARD_MARKER) {
+            throw new IllegalArgumentException("The image holds one shard of a message, extract it with the rest of its covers");
+        }
+        System.out.println(label + ": " + header);
+        return header;
+    }
 
-                messageLength = DataUtils.bytesToInt(decryptedBytes, 0);
-                message = decryptedBytes;
-                System.out.println("True message length: " + messageLength);
-            }
+    private static int readLength(DataInputStream message, String label) throws IOException {
+        var messageLength = readHeader(message, label);
+        if (messageLength < 0) {
+            throw new IllegalArgumentException("Invalid message format");
+        }
+        return messageLength;
+    }
 
-            DataUtils.bytesToFile(message, 4, messageLength, output);
-            if (message[messageLength + 4] != (byte) '.') {
-                throw new IllegalArgumentException("Invalid message format");
+    /**
+     * Copies the file contents of a message into the output file.
+     * @param message Stream positioned at the start of the file contents.
+     * @return The extension of the file, read from the end of the message.
+     */
+    private static String extractFile(DataInputStream message, int messageLength, ByteSink output) throws IOException {
+        try (var fileStream = output.openBufferedStream()) {
+            var copied = ByteStreams.copy(ByteStreams.limit(message, messageLength), fileStream);
+            if (copied != messageLength) {
+                throw new EOFException("Message ended after " + copied + " of " + messageLength + " bytes");
             }
+        }
+        if (message.read() != '.') {
+            throw new IllegalArgumentException("Invalid message format");
+        }
+
+        var extension = new StringBuilder(".");
+        int c;
+        while ((c = message.read()) > 0) {
+            extension.append((char) c);
+        }
+        return extension.toString();
+    }
+
+    /**
+     * Copies the file contents of a message that may be compressed into the output file.
+     * @param header First field of the message: the file length, or the negated compression id if it is compressed.
+     * @return The extension of the file.
+     */
+    private static String extractMessage(DataInputStream message, int header, ByteSink output) throws IOException {
+        if (header >= 0) {
+            return extractFile(message, header, output);
+        }
+
+        CompressionAlgorithm algorithm;
+        try {
+            algorithm = CompressionAlgorithm.of(CompressionAlgorithmType.fromId(-header));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid message format", e);
+        }
+        if (algorithm == null) {
+            throw new IllegalArgumentException("Invalid message format");
+        }
+        System.out.println("Compressed with " + algorithm.type());
+        var compressedLength = readLength(message, "Compressed message length");
+        try (var decompressed = new DataInputStream(
+                algorithm.decompress(ByteStreams.limit(message, compressedLength)))) {
+            return extractFile(decompressed, readLength(decompressed, "Uncompressed message length"), output);
+        }
+    }
 
-            var messageExtension = DataUtils.bytesToString(
-                    message,
-                    4 + messageLength,
-                    (byte) '\0');
+    /**
+     * Extracts the file hidden in a stego image.
+     * @param output Where to write the file. Its extension is replaced by the one stored in the message.
+     * @return The extracted file.
+     */
+    public File extract(File input, File output, String password) throws IOException {
+        return extract(Image.open(input), output, password);
+    }
 
-            String newFilename = (output.getName().lastIndexOf('.') == -1)
-                    ? output.getName()
-                    : output
-                            .getName()
-                            .substring(0, output.getName().lastIndexOf('.'));
+    /**
+     * Extracts the file hidden in an image that is already open.
+     * @see #extract(File, File, String)
+     */
+    public File extract(Image secretImage, File output, String password) throws IOException {
+        String messageExtension;
+        // Only the bytes that are read get extracted from the image
+        try (var message = new DataInputStream(steganographyAlgorithm.decodeStream(secretImage))) {
+            messageExtension = extractMessage(message, MoreFiles.asByteSink(output.toPath()), password);
+        }
+        return renameWithExtension(output, messageExtension);
+    }
 
-            var fullOutput = new File(
-                    output.toPath().resolveSibling(newFilename + messageExtension).toString());
-            if (!fullOutput.exists()) {
-                fullOutput.createNewFile();
+    /**
+     * Writes the file held by a whole message, decrypting it first when encryption is required.
+     * @return The extension of the file.
+     */
+    private String extractMessage(DataInputStream message, ByteSink output, String password) throws IOException {
+        String messageExtension;
+        if (requiresEncryption()) {
+            var messageLength = readLength(message, "Message length");
+            if (messageLength > encryptionAlgorithm.maxEncryptedLength()) {
+                throw new IllegalArgumentException("The encrypted message takes " + messageLength
+                        + " bytes, authenticated encryption only extracts up to " + encryptionAlgorithm.maxEncryptedLength());
             }
-            var renamed = output.renameTo(fullOutput);
-            if (!renamed) {
+            try (var decrypted = new DataInputStream(encryptionAlgorithm.decrypt(
+                    ByteStreams.limit(message, messageLength),
+                    password))) {
+                var header = readHeader(decrypted, "True message length");
+                messageExtension = extractMessage(decrypted, header, output);
+            }
+        } else {
+            var header = readHeader(message, "Message length");
+            messageExtension = extractMessage(message, header, output);
+        }
+        return messageExtension;
+    }
+
+    /**
+     * Replaces the extension of an extracted file by the one stored in its message.
+     */
+    private static File renameWithExtension(File output, String messageExtension) {
+        String newFilename = (output.getName().lastIndexOf('.') == -1)
+                ? output.getName()
+                : output
+                        .getName()
+                        .substring(0, output.getName().lastIndexOf('.'));
+
+        var fullOutput = new File(
+                output.toPath().resolveSibling(newFilename + messageExtension).toString());
+        if (!fullOutput.equals(output)) {
+            try {
+                Files.move(output.toPath(), fullOutput.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
                 throw new RuntimeException("File " + fullOutput.getAbsolutePath() + " could not be created."
                         + (output.canWrite() ? (fullOutput.canWrite() ? "" : " Cannot write dest file.")
-                                : " Cannot write source file."));
+                                : " Cannot write source file."), e);
+            }
+        }
+
+        return fullOutput;
+    }
+
+    /**
+     * @return The length of the whole message held by a stego image, headers included.
+     * @throws IllegalArgumentException If the headers do not describe a message that fits in the image.
+     */
+    private long messageLength(Image stegoImage) {
+        var capacity = steganographyAlgorithm.capacity(stegoImage);
+        var header = DataUtils.bytesToInt(steganographyAlgorithm.decode(stegoImage, 0, 4), 0);
+        if (header == SHARD_MARKER) {
+            throw new IllegalArgumentException("The image holds one shard of a message, extract it with the rest of its covers");
+        }
+        long length;
+        if (requiresEncryption()) {
+            length = header < 0 ? -1 : 4L + header;
+        } else if (header < 0) {
+            length = capacity < COMPRESSION_HEADER_SIZE ? -1
+                    : COMPRESSION_HEADER_SIZE + (long) DataUtils.bytesToInt(steganographyAlgorithm.decode(stegoImage, 4, 4), 0);
+        } else {
+            // The extension has no length field, it ends at its terminator
+            length = -1;
+            for (long position = 4L + header; length == -1 && position < capacity; position += MAX_PROBED_EXTENSION_LENGTH) {
+                var trailer = steganographyAlgorithm.decode(
+                        stegoImage, position, (int) Math.min(MAX_PROBED_EXTENSION_LENGTH, capacity - position));
+                for (int i = 0; i < trailer.length; i++) {
+                    if (trailer[i] == 0) {
+                        length = position + i + 1;
+                        break;
+                    }
+                }
+            }
+        }
+        if (length < 4 || length > capacity) {
+            throw new IllegalArgumentException("Invalid message format");
+        }
+        return length;
+    }
+
+    /**
+     * Copies the message held by a stego image out of it, still compressed and encrypted. First stage of an
+     * extraction that runs in separate steps, {@link #unpackMessage} and {@link #writeExtracted} finish it.
+     * @param closer Releases the message once it is no longer needed.
+     */
+    public ByteSource decodeMessage(Image stegoImage, Closer closer) throws IOException {
+        var length = messageLength(stegoImage);
+        var decoded = new FileBackedOutputStream(STAGED_MEMORY_THRESHOLD);
+        closer.register(decoded::reset);
+        try (decoded) {
+            decodeTo(stegoImage, 0, length, decoded);
+        }
+        return decoded.asByteSource();
+    }
+
+    /**
+     * Decodes a range of the data hidden in a stego image into a stream, a chunk at a time.
+     */
+    private void decodeTo(Image stegoImage, long offset, long length, OutputStream out) throws IOException {
+        var chunk = new byte[(int) Math.min(StegoCodec.DECODE_CHUNK_SIZE, length)];
+        for (long position = 0; position < length; position += chunk.length) {
+            var read = (int) Math.min(chunk.length, length - position);
+            steganographyAlgorithm.decode(stegoImage, offset + position, chunk, 0, read);
+            out.write(chunk, 0, read);
+        }
+    }
+
+    /**
+     * Decrypts and decompresses a message returned by {@link #decodeMessage}.
+     * @param closer Releases the file contents once they are no longer needed.
+     */
+    public ExtractedFile unpackMessage(ByteSource message, String password, Closer closer) throws IOException {
+        var contents = new FileBackedOutputStream(STAGED_MEMORY_THRESHOLD);
+        closer.register(contents::reset);
+        var sink = new ByteSink() {
+            @Override
+            public OutputStream openStream() {
+                return contents;
+            }
+        };
+        try (var stream = new DataInputStream(message.openBufferedStream())) {
+            return new ExtractedFile(contents.asByteSource(), extractMessage(stream, sink, password));
+        }
+    }
+
+    /**
+     * Writes a file returned by {@link #unpackMessage}.
+     * @param output Where to write the file. Its extension is replaced by the one stored in the message.
+     * @return The extracted file.
+     */
+    public static File writeExtracted(ExtractedFile file, File output) throws IOException {
+        file.contents().copyTo(MoreFiles.asByteSink(output.toPath()));
+        return renameWithExtension(output, file.extension());
+    }
+
+    /**
+     * Extracts a file that was embedded with {@link #embedSharded}. The images may be given in any order, and
+     * their shards are decoded in parallel. Each slice is decoded in chunks into memory, or into a temporary file once
+     * it gets large, so no shard is ever held whole in the heap.
+     * @param output Where to write the file. Its extension is replaced by the one stored in the message.
+     * @return The extracted file.
+     */
+    public File extractSharded(List<File> inputs, File output, String password) throws IOException {
+        record Slice(Shard shard, ByteSource data) {
+        }
+        try (var closer = Closer.create()) {
+            List<Slice> slices;
+            try {
+                slices = runInParallel(inputs, (index, input) -> {
+                    var stegoImage = Image.open(input);
+                    var shard = Shard.fromBytes(steganographyAlgorithm.decode(stegoImage, 0, SHARD_HEADER_SIZE));
+                    if (shard.length() > steganographyAlgorithm.capacity(stegoImage) - SHARD_HEADER_SIZE) {
+                        throw new IllegalArgumentException("Invalid shard header in " + input.getName());
+                    }
+                    // Slices are kept in memory up to a size, and in a temporary file beyond it
+                    var data = new FileBackedOutputStream(SHARDING_MEMORY_THRESHOLD);
+                    synchronized (closer) {
+                        closer.register(data::reset);
+                    }
+                    try (data) {
+                        decodeTo(stegoImage, SHARD_HEADER_SIZE, shard.length(), data);
+                    }
+                    return new Slice(shard, data.asByteSource());
+                });
+            } catch (SecretTooLargeException e) {
+                // Only embedding reports it
+                throw new IllegalStateException(e);
+            }
+
+            var first = slices.getFirst().shard();
+            var ordered = new ByteSource[first.count()];
+            for (var slice : slices) {
+                var shard = slice.shard();
+                if (shard.payloadId() != first.payloadId() || shard.count() != first.count()) {
+                    throw new IllegalArgumentException("The images hold shards of different messages");
+                }
+                if (ordered[shard.index()] != null) {
+                    throw new IllegalArgumentException("Shard " + (shard.index() + 1) + " was given twice");
+                }
+                ordered[shard.index()] = slice.data();
+            }
+            for (int i = 0; i < ordered.length; i++) {
+                if (ordered[i] == null) {
+                    throw new IllegalArgumentException("Shard " + (i + 1) + " of " + ordered.length + " is missing");
+                }
             }
 
-            // var outputFile = new File(output, messageExtension.toString());
-            DataUtils.bytesToFile(message, 4, messageLength, fullOutput);
+            String messageExtension;
+            try (var message = new DataInputStream(ByteSource.concat(ordered).openBufferedStream())) {
+                messageExtension = extractMessage(message, MoreFiles.asByteSink(output.toPath()), password);
+            }
+            return renameWithExtension(output, messageExtension);
+        }
+    }
+
+    public void decode(File input, File output, String password) {
+        try {
+            var fullOutput = extract(input, output, password);
             System.out.println(
                     "Secret message decoded successfully as " + fullOutput.getName());
-            output.delete();
         } catch (IOException e) {
-            System.err.println("An error occurred while reading the file");
+            System.err.println("An error occurred while reading the file: " + e.getMessage());
         }
     }
 }
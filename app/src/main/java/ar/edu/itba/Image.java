@@ -1,33 +1,55 @@
 package ar.edu.itba;
 
-import java.awt.image.BufferedImage;
 import java.io.*;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.StandardOpenOption;
 
-import javax.imageio.ImageIO;
+import ar.edu.itba.utils.EnvUtils;
+
+public class Image implements ImageHeader {
+    static final int HEADER_SIZE = 54;
+    static final int PIXEL_OFFSET_POSITION = 10;
+    static final int WIDTH_POSITION = 18;
+    static final int HEIGHT_POSITION = 22;
+    static final int BITS_PER_PIXEL_POSITION = 28;
+    /** Files at least this big are kept out of the heap by {@link #open(File)}, memory mapped when they are writable */
+    static final long MAPPING_THRESHOLD;
+    private static final long DEFAULT_MAPPING_THRESHOLD = 16L * 1024 * 1024;
+    /** Bodies are written to files in slices of this size, a ByteBuffer cannot address more than 2 GB */
+    private static final int WRITE_CHUNK_SIZE = 256 * 1024 * 1024;
+
+    static {
+        MAPPING_THRESHOLD = EnvUtils.getLong("MAPPING_THRESHOLD", DEFAULT_MAPPING_THRESHOLD);
+    }
 
-public class Image {
     private final byte[] header;
-    private byte[] body;
+    private MemorySegment body;
 
     public Image(InputStream stream) throws IOException {
-        this.header = stream.readNBytes(54);
+        this.header = stream.readNBytes(HEADER_SIZE);
         var reader = ByteBuffer.wrap(this.header);
         reader.order(ByteOrder.LITTLE_ENDIAN);
         reader.getShort();
         var length = reader.getInt();
-        System.err.println("length: %d".formatted(length));
         reader.getShort();
         reader.getShort();
         var offset = reader.getInt();
-        System.err.println("offset: %d".formatted(length));
-        stream.skipNBytes(offset - 54);
-        this.body = stream.readNBytes(length);
+        stream.skipNBytes(offset - HEADER_SIZE);
+        this.body = MemorySegment.ofArray(stream.readNBytes(length));
         stream.close();
     }
 
+    protected Image(byte[] header, MemorySegment body) {
+        this.header = header;
+        this.body = body;
+    }
+
     public static Image load(String path) throws FileNotFoundException, IOException {
         var file = new File(path);
         if (!file.exists()) {
@@ -37,52 +59,181 @@ public class Image {
         return new Image(stream);
     }
 
-    public static Image fromBufferedImage(BufferedImage image) {
-        var outputStream = new ByteArrayOutputStream();
-        try {
-            ImageIO.write(image, "bmp", outputStream);
-            var encoded = new ByteArrayInputStream(outputStream.toByteArray());
-            return new Image(encoded);
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Opens an image from a file, keeping it out of the heap when it is large enough for the copy into the heap to
+     * matter.
+     * @param file The BMP file to open.
+     * @return For files of at least {@code MAPPING_THRESHOLD} bytes, a {@link MappedImage} if the file is writable and
+     * an image with an off-heap copy of the body otherwise. A heap backed image for smaller files.
+     */
+    public static Image open(File file) throws FileNotFoundException, IOException {
+        return open(file, MAPPING_THRESHOLD);
+    }
+
+    /**
+     * @see #open(File)
+     * @param mappingThreshold Size from which files are kept out of the heap, in place of {@code MAPPING_THRESHOLD}.
+     */
+    static Image open(File file, long mappingThreshold) throws FileNotFoundException, IOException {
+        if (!file.exists()) {
+            throw new FileNotFoundException(file.getPath());
+        }
+        if (file.length() >= mappingThreshold) {
+            return file.canWrite() ? MappedImage.map(file) : readOffHeap(file);
         }
+        return new Image(new FileInputStream(file));
+    }
 
-        return null;
+    /**
+     * Reads the header of a BMP file from a channel and checks where its pixel data starts.
+     * @return The header. The pixel data starts at the offset it stores at {@code PIXEL_OFFSET_POSITION}.
+     */
+    static byte[] readHeader(FileChannel channel, File file) throws IOException {
+        var header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                throw new IOException("File " + file.getName() + " is too small to be a BMP image");
+            }
+        }
+        var offset = header.order(ByteOrder.LITTLE_ENDIAN).getInt(PIXEL_OFFSET_POSITION);
+        if (offset < HEADER_SIZE || offset > channel.size()) {
+            throw new IOException("Invalid pixel data offset in " + file.getName() + ": " + offset);
+        }
+        return header.array();
     }
 
-    public BufferedImage toBufferedImage() {
-        var stream = new SequenceInputStream(
-                new ByteArrayInputStream(getHeader()),
-                new ByteArrayInputStream(getBody()));
-        try {
-            return ImageIO.read(stream);
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Copies the body of a file that cannot be mapped into native memory, which is released once the image is no
+     * longer reachable.
+     */
+    static Image readOffHeap(File file) throws IOException {
+        try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            var header = readHeader(channel, file);
+            var offset = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN).getInt(PIXEL_OFFSET_POSITION);
+            var body = Arena.ofAuto().allocate(channel.size() - offset);
+            for (long position = 0; position < body.byteSize(); ) {
+                var chunk = body.asSlice(position, Math.min(WRITE_CHUNK_SIZE, body.byteSize() - position)).asByteBuffer();
+                while (chunk.hasRemaining()) {
+                    if (channel.read(chunk, offset + position + chunk.position()) < 0) {
+                        throw new EOFException("File " + file.getName() + " ended before its pixel data");
+                    }
+                }
+                position += chunk.capacity();
+            }
+            return new Image(header, body);
         }
-        return null;
     }
 
     public byte[] getHeader() {
         return header;
     }
 
+    private int headerInt(int position) {
+        return ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN).getInt(position);
+    }
+
+    @Override
+    public int getWidth() {
+        return headerInt(WIDTH_POSITION);
+    }
+
+    /**
+     * @return The height of the image in pixels. The header stores it as negative for top-down bitmaps, this is always positive.
+     */
+    @Override
+    public int getHeight() {
+        return Math.abs(headerInt(HEIGHT_POSITION));
+    }
+
+    /**
+     * @return Whether the first row in the body is the top row of the image. BMPs are stored bottom-up unless their height is negative.
+     */
+    public boolean isTopDown() {
+        return headerInt(HEIGHT_POSITION) < 0;
+    }
+
+    @Override
+    public int getBitsPerPixel() {
+        return ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN).getShort(BITS_PER_PIXEL_POSITION);
+    }
+
+    /**
+     * @return The size in bytes of a row in the body, including the padding that aligns rows to 4 bytes.
+     */
+    public int getRowSize() {
+        return (getWidth() * getBitsPerPixel() + 31) / 32 * 4;
+    }
+
+    /**
+     * Returns the pixel data as an array. For heap backed images this is the backing array itself, for mapped and
+     * off-heap images it is a copy, so codecs should prefer {@link #getBodySegment()}.
+     */
     public byte[] getBody() {
+        var buffer = getBodyBuffer();
+        if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.array().length == buffer.limit()) {
+            return buffer.array();
+        }
+        return body.toArray(ValueLayout.JAVA_BYTE);
+    }
+
+    /**
+     * Returns the pixel data as a buffer over the same memory. Writes through this buffer change the image in place,
+     * callers should use absolute indexing and not rely on its position.
+     * @throws UnsupportedOperationException If the body is bigger than a buffer can address, see
+     * {@link #getBodySegment()}.
+     */
+    public ByteBuffer getBodyBuffer() {
+        if (body.byteSize() > Integer.MAX_VALUE) {
+            throw new UnsupportedOperationException("The pixel data is too large for a buffer: " + body.byteSize() + " bytes");
+        }
+        return body.asByteBuffer();
+    }
+
+    /**
+     * Returns the pixel data, whatever its size and wherever it lives. Writes through the segment change the image in
+     * place.
+     */
+    public MemorySegment getBodySegment() {
         return body;
     }
 
+    /**
+     * Brings the pixel data into memory, so that codecs working on it later do not wait on the disk. Only mapped
+     * images have anything to read.
+     */
+    public void load() {
+        if (body.isMapped()) {
+            body.load();
+        }
+    }
+
+    @Override
+    public long getBodySize() {
+        return body.byteSize();
+    }
+
     public Image withBody(byte[] body) {
-        this.body = body;
+        this.body = MemorySegment.ofArray(body);
         return this;
     }
 
     public File save(File file) throws FileAlreadyExistsException, IOException {
-        if (!file.exists()) {
-            file.createNewFile();
+        try (var channel = FileChannel.open(
+                file.toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            var headerBuffer = ByteBuffer.wrap(header);
+            while (headerBuffer.hasRemaining()) {
+                channel.write(headerBuffer);
+            }
+            for (long position = 0; position < body.byteSize(); position += WRITE_CHUNK_SIZE) {
+                var bodyBuffer = body.asSlice(position, Math.min(WRITE_CHUNK_SIZE, body.byteSize() - position)).asByteBuffer();
+                while (bodyBuffer.hasRemaining()) {
+                    channel.write(bodyBuffer);
+                }
+            }
         }
-        var stream = new FileOutputStream(file);
-        stream.write(header);
-        stream.write(body);
-        stream.close();
 
         return file;
     }
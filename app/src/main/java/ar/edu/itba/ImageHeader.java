@@ -0,0 +1,74 @@
+package ar.edu.itba;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Layout of a BMP image, as its header describes it. It answers every question about the image layout, such as its
+ * dimensions or the capacity a codec gets from it, without touching the pixel data. Every {@link Image} is one, and
+ * {@link #read} gets one from a file reading only its header.
+ */
+public interface ImageHeader {
+    int getWidth();
+
+    /**
+     * @return The height of the image in pixels, always positive.
+     */
+    int getHeight();
+
+    int getBitsPerPixel();
+
+    /**
+     * @return The size in bytes of the pixel data, padding included.
+     */
+    long getBodySize();
+
+    /**
+     * The header of an image that was read without its pixel data.
+     */
+    record Fields(int width, int height, int bitsPerPixel, long bodySize) implements ImageHeader {
+        @Override
+        public int getWidth() {
+            return width;
+        }
+
+        @Override
+        public int getHeight() {
+            return height;
+        }
+
+        @Override
+        public int getBitsPerPixel() {
+            return bitsPerPixel;
+        }
+
+        @Override
+        public long getBodySize() {
+            return bodySize;
+        }
+    }
+
+    static ImageHeader read(File file) throws IOException {
+        byte[] header;
+        try (var stream = new FileInputStream(file)) {
+            header = stream.readNBytes(Image.HEADER_SIZE);
+        }
+        if (header.length < Image.HEADER_SIZE || header[0] != 'B' || header[1] != 'M') {
+            throw new IOException("File " + file.getName() + " is not a BMP image");
+        }
+        var fields = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+        var offset = fields.getInt(Image.PIXEL_OFFSET_POSITION);
+        if (offset < Image.HEADER_SIZE || offset > file.length()) {
+            throw new IOException("Invalid pixel data offset in " + file.getName() + ": " + offset);
+        }
+        return new Fields(
+          fields.getInt(Image.WIDTH_POSITION),
+          Math.abs(fields.getInt(Image.HEIGHT_POSITION)),
+          fields.getShort(Image.BITS_PER_PIXEL_POSITION),
+          file.length() - offset
+        );
+    }
+}
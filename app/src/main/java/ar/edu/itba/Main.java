@@ -1,11 +1,17 @@
 package ar.edu.itba;
 
+import ar.edu.itba.compression.CompressionAlgorithm;
 import ar.edu.itba.config.*;
+import ar.edu.itba.encryption.EncryptionAlgorithm;
 import ar.edu.itba.encryption.EncryptionCodec;
 import ar.edu.itba.encryption.TripleDESEncryption;
+import ar.edu.itba.steganalysis.ImageReport;
+import ar.edu.itba.steganalysis.Steganalyzer;
 import ar.edu.itba.steganography.*;
 import org.apache.commons.cli.*;
 
+import java.nio.file.Path;
+
 public class Main {
 
     private static Option createOption(
@@ -22,6 +28,18 @@ public class Main {
             .build();
     }
 
+    static StegoCodec createStegoCodec(SteganographyAlgorithmType type) {
+        return switch (type) {
+            case SteganographyAlgorithmType.LSB1 -> new LSBNCodec(1);
+            case SteganographyAlgorithmType.LSB4 -> new LSBNCodec(4);
+            case SteganographyAlgorithmType.LSBI -> new LSBICodec();
+        };
+    }
+
+    static EncryptionAlgorithm createEncryption(EncryptionAlgorithmType enc, EncryptionMode mode) {
+        return enc.equals(EncryptionAlgorithmType.PLAIN_TEXT) ? null : new EncryptionCodec(enc, mode);
+    }
+
     private static void printHelp(Options options) {
         var formatter = new HelpFormatter();
         formatter.printHelp("Main", options);
@@ -79,7 +97,79 @@ public class Main {
                     "steg",
                     String.class,
                     true,
-                    "<LSB1 | LSB4 | LSBI> Steganography algorithm to use"
+                    "<LSB1 | LSB4 | LSBI | auto> Steganography algorithm to use. In batch mode a comma separated list of them. auto detects it when extracting"
+                )
+            );
+            options.addOption(
+                createOption(
+                    "compress",
+                    String.class,
+                    true,
+                    "<deflate> Compresses the secret message before encrypting and embedding it. Extraction detects compressed messages by itself"
+                )
+            );
+            options.addOption(
+                createOption(
+                    "batch",
+                    String.class,
+                    true,
+                    "Directory of bmp images, or a manifest file listing one image per line, to process in a single run. 'out' is then the output directory"
+                )
+            );
+            options.addOption(
+                createOption(
+                    "covers",
+                    String.class,
+                    true,
+                    "Comma separated list of bmp images to split the secret across, used instead of 'p'. When extracting, the stego images in any order. 'out' is then the base name of the stego images"
+                )
+            );
+            options.addOption(
+                createOption(
+                    "serve",
+                    String.class,
+                    true,
+                    "Path of a Unix domain socket to serve embed and extract jobs on, instead of running a single one"
+                )
+            );
+            options.addOption(
+                createOption(
+                    "index",
+                    String.class,
+                    true,
+                    "Directory of cover images to index by capacity. With 'in' and 'steg' (and optionally 'a' and 'm'), prints the smallest cover that can hold the secret"
+                )
+            );
+            options.addOption(
+                createOption(
+                    "analyze",
+                    String.class,
+                    true,
+                    "Directory of bmp images to search for hidden messages. Prints the images ranked by how likely they are to hold one, with the likely method"
+                )
+            );
+            options.addOption(
+                createOption(
+                    "threads",
+                    Integer.class,
+                    true,
+                    "Number of worker threads in batch and analysis modes. Defaults to the number of processors, 0 uses a virtual thread per job"
+                )
+            );
+            options.addOption(
+                createOption(
+                    "pipeline",
+                    Boolean.class,
+                    false,
+                    "In batch mode, overlaps reading, encryption, embedding and writing across images and prints how busy every stage was. threads sets its CPU threads"
+                )
+            );
+            options.addOption(
+                createOption(
+                    "memory",
+                    String.class,
+                    true,
+                    "Memory that the jobs running at once in batch mode may take together, in bytes or with a k, m or g suffix. Large images wait for room instead of running out of memory. Defaults to three quarters of the maximum heap"
                 )
             );
             options.addOption(
@@ -87,7 +177,7 @@ public class Main {
                     "a",
                     String.class,
                     true,
-                    "<aes128 | aes192 | aes256 | 3des> Encryption algorithm to use"
+                    "<aes128 | aes192 | aes256 | 3des | chacha20> Encryption algorithm to use. chacha20 is always authenticated with Poly1305 and ignores the mode"
                 )
             );
             options.addOption(
@@ -95,7 +185,7 @@ public class Main {
                     "m",
                     String.class,
                     true,
-                    "<ecb | cfb | ofb | cbc> Encryption mode to use"
+                    "<ecb | cfb | ofb | cbc | gcm> Encryption mode to use. gcm detects wrong passwords and tampering, and requires AES"
                 )
             );
             options.addOption(
@@ -115,17 +205,101 @@ public class Main {
                 System.exit(0);
             }
 
+            if (cmd.hasOption("serve")) {
+                new StegoServer(Path.of(cmd.getOptionValue("serve"))).serve();
+                complete = true;
+                return;
+            }
+
+            if (cmd.hasOption("index")) {
+                var indexConfig = IndexConfig.fromParsed(cmd);
+                var index = CoverIndex.update(indexConfig.library());
+                if (indexConfig.secretMessage() == null) {
+                    System.out.println(index.entries().size() + " covers indexed");
+                    complete = true;
+                    return;
+                }
+                var messageSize = new FileCodec(
+                    createStegoCodec(indexConfig.steg()),
+                    createEncryption(indexConfig.enc(), indexConfig.mode()),
+                    CompressionAlgorithm.of(indexConfig.compression())
+                ).messageSize(indexConfig.secretMessage());
+                var cover = index.select(indexConfig.steg(), messageSize);
+                if (cover.isEmpty()) {
+                    System.err.println("No cover can hold a message of " + messageSize + " bytes with " + indexConfig.steg());
+                    return;
+                }
+                System.out.println(cover.get().cover());
+                complete = true;
+                return;
+            }
+
+            if (cmd.hasOption("analyze")) {
+                var analysisConfig = AnalysisConfig.fromParsed(cmd);
+                var start = System.nanoTime();
+                var reports = new Steganalyzer().scan(analysisConfig.library(), analysisConfig.threads());
+                Steganalyzer.print(reports, System.out);
+                var millis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+                var megabytes = reports.stream().mapToLong(ImageReport::size).sum() / (1024.0 * 1024);
+                System.out.printf("%d images, %.1f MB analyzed in %d ms (%.1f MB/s)%n",
+                    reports.size(), megabytes, millis, megabytes * 1000 / millis);
+                complete = true;
+                return;
+            }
+
+            if (cmd.hasOption("batch")) {
+                var batchConfig = BatchConfig.fromParsed(cmd);
+                var failures = new BatchProcessor(
+                    batchConfig,
+                    createEncryption(batchConfig.enc(), batchConfig.mode())
+                ).run();
+                complete = failures == 0;
+                return;
+            }
+
+            if (cmd.hasOption("covers")) {
+                var shardConfig = ShardConfig.fromParsed(cmd);
+                var codec = new FileCodec(
+                    createStegoCodec(shardConfig.steg()),
+                    createEncryption(shardConfig.enc(), shardConfig.mode()),
+                    CompressionAlgorithm.of(shardConfig.compression())
+                );
+                if (shardConfig.embed()) {
+                    var stegoImages = codec.embedSharded(
+                        shardConfig.secretMessage(),
+                        shardConfig.images(),
+                        shardConfig.output(),
+                        shardConfig.password()
+                    );
+                    for (var stegoImage : stegoImages) {
+                        System.out.println(stegoImage);
+                    }
+                    System.err.println("Secret message split across " + stegoImages.size() + " images");
+                } else {
+                    var secret = codec.extractSharded(shardConfig.images(), shardConfig.output(), shardConfig.password());
+                    System.out.println("Secret message decoded successfully as " + secret.getName());
+                }
+                complete = true;
+                return;
+            }
+
             var config = ProgramConfig.fromParsed(cmd);
 
+            if (config.steg() == null) {
+                var detection = new MethodDetector(
+                    createEncryption(config.enc(), config.mode()),
+                    CompressionAlgorithm.of(config.compression())
+                ).extract(config.coverImage(), config.stegoImage(), config.password());
+                System.out.println(
+                    "Secret message decoded successfully with " + detection.method() + " as " + detection.output().getName());
+                complete = true;
+                return;
+            }
+
             var codec = new FileCodec(
-                switch (config.steg()) {
-                    case SteganographyAlgorithmType.LSB1 -> new LSBNCodec(1);
-                    case SteganographyAlgorithmType.LSB4 -> new LSBNCodec(4);
-                    case SteganographyAlgorithmType.LSBI -> new LSBICodec();
-                },
-                config.enc().equals(EncryptionAlgorithmType.PLAIN_TEXT) ?
-                    null :
-                    new EncryptionCodec(config.enc(), config.mode())
+                createStegoCodec(config.steg()),
+                createEncryption(config.enc(), config.mode()),
+                CompressionAlgorithm.of(config.compression())
             );
 
             if (config.embed()) {
@@ -0,0 +1,50 @@
+package ar.edu.itba;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * BMP image whose pixel data is a copy-on-write mapping of the file it was loaded from.
+ * Codecs write into the mapping directly: only the pages they touch get copied, the file on disk is never modified
+ * and the untouched pixel data never goes through the JVM heap. The mapping is a memory segment, so files bigger than
+ * 2 GB can be mapped whole. It is unmapped once the image is no longer reachable.
+ */
+public class MappedImage extends Image {
+    private final Path source;
+
+    private MappedImage(Path source, byte[] header, MemorySegment body) {
+        super(header, body);
+        this.source = source;
+    }
+
+    public static MappedImage map(File file) throws IOException {
+        // Private mappings need a writable channel even though nothing is ever written back to the file
+        try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            var header = readHeader(channel, file);
+            var offset = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN).getInt(PIXEL_OFFSET_POSITION);
+            var body = channel.map(FileChannel.MapMode.PRIVATE, offset, channel.size() - offset, Arena.ofAuto());
+            return new MappedImage(file.toPath(), header, body);
+        }
+    }
+
+    @Override
+    public File save(File file) throws IOException {
+        if (!file.exists() || !Files.isSameFile(source, file.toPath())) {
+            return super.save(file);
+        }
+        // Truncating the mapped file would invalidate the pages that were not copied yet
+        var temp = Files.createTempFile(source.toAbsolutePath().getParent(), file.getName(), ".tmp").toFile();
+        super.save(temp);
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return file;
+    }
+}
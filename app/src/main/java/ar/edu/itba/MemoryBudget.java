@@ -0,0 +1,117 @@
+package ar.edu.itba;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admits jobs against a budget of bytes instead of a job count, so that many small images run at once while large
+ * ones take turns. Jobs are admitted as soon as they fit, in arrival order among those that fit. A job that smaller
+ * ones keep passing by eventually holds the rest back until it fits, so no job waits forever. A job bigger than the
+ * whole budget runs once nothing else does.
+ * Waiting jobs park on a lock instead of a monitor, so virtual threads waiting for their turn release their carriers.
+ */
+public class MemoryBudget {
+    /** How many later jobs may be admitted before a waiting job that does not fit holds the rest back */
+    private static final int MAX_BYPASSES = 8;
+
+    private final class Waiter {
+        private final long bytes;
+        private final Condition turn = lock.newCondition();
+        private int bypasses;
+        private boolean admitted;
+
+        private Waiter(long bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    private final long budget;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final List<Waiter> waiting = new ArrayList<>();
+    private long used;
+    private long peak;
+
+    public MemoryBudget(long budget) {
+        if (budget <= 0) {
+            throw new IllegalArgumentException("The memory budget must be positive: " + budget);
+        }
+        this.budget = budget;
+    }
+
+    /**
+     * Waits until the job fits in the budget and takes its bytes from it.
+     * @return The bytes taken, which is what {@link #release} must be given back. Never more than the budget.
+     */
+    public long acquire(long bytes) throws InterruptedException {
+        lock.lock();
+        try {
+            var waiter = new Waiter(Math.clamp(bytes, 0, budget));
+            waiting.add(waiter);
+            admit();
+            try {
+                while (!waiter.admitted) {
+                    waiter.turn.await();
+                }
+            } catch (InterruptedException e) {
+                if (waiter.admitted) {
+                    release(waiter.bytes);
+                } else {
+                    waiting.remove(waiter);
+                    admit();
+                }
+                throw e;
+            }
+            return waiter.bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release(long bytes) {
+        lock.lock();
+        try {
+            used -= bytes;
+            admit();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Admits the waiting jobs that fit and wakes only those. Called with the lock held. */
+    private void admit() {
+        var passed = new ArrayList<Waiter>();
+        for (var iterator = waiting.iterator(); iterator.hasNext(); ) {
+            var waiter = iterator.next();
+            if (waiter.bytes <= budget - used) {
+                used += waiter.bytes;
+                peak = Math.max(peak, used);
+                waiter.admitted = true;
+                waiter.turn.signal();
+                iterator.remove();
+                passed.forEach(p -> p.bypasses++);
+            } else if (waiter.bypasses >= MAX_BYPASSES) {
+                break;
+            } else {
+                passed.add(waiter);
+            }
+        }
+    }
+
+    public long budget() {
+        return budget;
+    }
+
+    /**
+     * @return The most bytes that were taken from the budget at once.
+     */
+    public long peak() {
+        lock.lock();
+        try {
+            return peak;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package ar.edu.itba;
+
+import ar.edu.itba.compression.CompressionAlgorithm;
+import ar.edu.itba.config.SteganographyAlgorithmType;
+import ar.edu.itba.encryption.EncryptionAlgorithm;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Finds which steganography method hid the message of an image, for extractions that do not name one.
+ * Every method probes the image at the same time decoding only the message headers, and only the methods whose
+ * headers make sense go on to extract the whole message.
+ */
+public class MethodDetector {
+
+    public record Detection(SteganographyAlgorithmType method, File output) {
+    }
+
+    private final Map<SteganographyAlgorithmType, FileCodec> codecs = new EnumMap<>(SteganographyAlgorithmType.class);
+
+    public MethodDetector(EncryptionAlgorithm encryptionAlgorithm, CompressionAlgorithm compressionAlgorithm) {
+        for (var method : SteganographyAlgorithmType.values()) {
+            codecs.put(method, new FileCodec(Main.createStegoCodec(method), encryptionAlgorithm, compressionAlgorithm));
+        }
+    }
+
+    /**
+     * @return The methods that support the image and whose message headers are valid in it, in declaration order.
+     */
+    public List<SteganographyAlgorithmType> candidates(Image stegoImage) throws IOException {
+        var probes = new EnumMap<SteganographyAlgorithmType, Future<Boolean>>(SteganographyAlgorithmType.class);
+        // The image is only read, so every probe shares it
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (var entry : codecs.entrySet()) {
+                probes.put(entry.getKey(), executor.submit(() -> entry.getValue().holdsMessage(stegoImage)));
+            }
+            var candidates = new ArrayList<SteganographyAlgorithmType>();
+            for (var probe : probes.entrySet()) {
+                try {
+                    if (probe.getValue().get()) {
+                        candidates.add(probe.getKey());
+                    }
+                } catch (ExecutionException e) {
+                    // Headers that point outside of the image, or an image format the method does not support
+                    if (!(e.getCause() instanceof IndexOutOfBoundsException
+                            || e.getCause() instanceof IllegalArgumentException)) {
+                        throw new IllegalStateException(e.getCause());
+                    }
+                }
+            }
+            return candidates;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        }
+    }
+
+    /**
+     * @return The largest footprint of an extraction from the image among the methods.
+     * @see FileCodec#footprint(File, long)
+     */
+    public long footprint(File image) throws IOException {
+        long footprint = 0;
+        for (var codec : codecs.values()) {
+            try {
+                footprint = Math.max(footprint, codec.footprint(image, -1));
+            } catch (IllegalArgumentException e) {
+                // The method does not support the image format, it will not be tried
+            }
+        }
+        return footprint;
+    }
+
+    /**
+     * Extracts the file hidden in a stego image with the first candidate method that succeeds.
+     * @see FileCodec#extract(File, File, String)
+     * @throws IllegalArgumentException If no method finds a message in the image.
+     */
+    public Detection extract(File input, File output, String password) throws IOException {
+        var stegoImage = Image.open(input);
+        var candidates = candidates(stegoImage);
+        if (candidates.isEmpty()) {
+            throw new IllegalArgumentException("No steganography method finds a message in " + input.getName());
+        }
+
+        Exception lastError = null;
+        for (var method : candidates) {
+            try {
+                return new Detection(method, codecs.get(method).extract(stegoImage, output, password));
+            } catch (IOException | RuntimeException e) {
+                // The headers were a coincidence, try the next candidate
+                lastError = e;
+            }
+        }
+        if (lastError instanceof IOException e) {
+            throw e;
+        }
+        throw (RuntimeException) lastError;
+    }
+}
@@ -0,0 +1,233 @@
+package ar.edu.itba;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Runs items through a fixed sequence of stages connected by bounded queues, so that every stage works on a different
+ * item at the same time. I/O stages run on virtual threads. CPU stages run on platform threads, and all of them
+ * together never run more steps at once than the pipeline has CPU threads.
+ * A full queue blocks the stage before it, which bounds how many items are in flight.
+ */
+public class Pipeline<T> {
+
+    /** The work a stage does on an item. Items are mutable, a step leaves its output in the item. */
+    @FunctionalInterface
+    public interface Step<T> {
+        void apply(T item) throws Exception;
+    }
+
+    /**
+     * @param utilization Share of the run that the workers of the stage spent working, in [0, 1].
+     * @param maxQueued Largest number of items seen waiting for the stage.
+     * @param meanQueued Mean number of items waiting for the stage, sampled every time a worker takes one.
+     */
+    public record StageStatistics(
+      String name,
+      int workers,
+      boolean io,
+      long items,
+      long busyNanos,
+      double utilization,
+      int maxQueued,
+      double meanQueued
+    ) {
+    }
+
+    private final class Stage {
+        private final String name;
+        private final int workers;
+        private final boolean io;
+        private final Step<T> step;
+        private final BlockingQueue<T> input;
+        private final AtomicLong items = new AtomicLong();
+        private final AtomicLong busyNanos = new AtomicLong();
+        private final AtomicLong queuedSamples = new AtomicLong();
+        private volatile int maxQueued;
+        private Stage next;
+
+        private Stage(String name, int workers, boolean io, Step<T> step) {
+            this.name = name;
+            this.workers = workers;
+            this.io = io;
+            this.step = step;
+            this.input = new ArrayBlockingQueue<>(queueDepth);
+        }
+
+        private void work() {
+            try {
+                while (true) {
+                    var queued = input.size();
+                    var item = input.take();
+                    queuedSamples.addAndGet(queued);
+                    if (queued > maxQueued) {
+                        maxQueued = queued;
+                    }
+                    if (!apply(item) || next == null) {
+                        completed.put(item);
+                    } else {
+                        next.input.put(item);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // The run is over
+            }
+        }
+
+        /** @return Whether the step succeeded. Failed items skip the rest of the stages. */
+        private boolean apply(T item) throws InterruptedException {
+            if (!io) {
+                cpuPermits.acquire();
+            }
+            var start = System.nanoTime();
+            try {
+                step.apply(item);
+                return true;
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                onError.accept(item, e);
+                return false;
+            } catch (Error e) {
+                // A worker that dies would leave its item unfinished and the run waiting for it forever
+                onError.accept(item, new ExecutionException(e));
+                return false;
+            } finally {
+                busyNanos.addAndGet(System.nanoTime() - start);
+                items.incrementAndGet();
+                if (!io) {
+                    cpuPermits.release();
+                }
+            }
+        }
+
+        private StageStatistics statistics(long wallNanos) {
+            var count = items.get();
+            return new StageStatistics(
+              name,
+              workers,
+              io,
+              count,
+              busyNanos.get(),
+              wallNanos == 0 ? 0 : Math.min(1, (double) busyNanos.get() / wallNanos / workers),
+              maxQueued,
+              count == 0 ? 0 : (double) queuedSamples.get() / count
+            );
+        }
+    }
+
+    private final int cpuThreads;
+    private final int queueDepth;
+    private final Semaphore cpuPermits;
+    private final BiConsumer<T, Exception> onError;
+    private final List<Stage> stages = new ArrayList<>();
+    private final BlockingQueue<T> completed = new LinkedBlockingQueue<>();
+    private long wallNanos;
+
+    /**
+     * @param cpuThreads How many CPU steps may run at once across all CPU stages.
+     * @param queueDepth Capacity of the queue in front of every stage.
+     * @param onError Called with the items whose step threw, which then leave the pipeline.
+     */
+    public Pipeline(int cpuThreads, int queueDepth, BiConsumer<T, Exception> onError) {
+        if (cpuThreads < 1 || queueDepth < 1) {
+            throw new IllegalArgumentException("A pipeline needs at least one CPU thread and one queued item");
+        }
+        this.cpuThreads = cpuThreads;
+        this.queueDepth = queueDepth;
+        this.cpuPermits = new Semaphore(cpuThreads);
+        this.onError = onError;
+    }
+
+    /**
+     * Adds a stage that waits on the disk or the network. Its workers are virtual threads.
+     */
+    public Pipeline<T> ioStage(String name, int workers, Step<T> step) {
+        return addStage(new Stage(name, workers, true, step));
+    }
+
+    /**
+     * Adds a stage that keeps a processor busy. It gets one platform thread per CPU thread of the pipeline.
+     */
+    public Pipeline<T> cpuStage(String name, Step<T> step) {
+        return addStage(new Stage(name, cpuThreads, false, step));
+    }
+
+    private Pipeline<T> addStage(Stage stage) {
+        if (!stages.isEmpty()) {
+            stages.getLast().next = stage;
+        }
+        stages.add(stage);
+        return this;
+    }
+
+    /**
+     * Runs every item through the stages.
+     * @param done Called on the calling thread with every item once it leaves the pipeline, in completion order.
+     */
+    public void run(List<T> items, Consumer<T> done) throws InterruptedException {
+        if (stages.isEmpty()) {
+            throw new IllegalStateException("The pipeline has no stages");
+        }
+        var start = System.nanoTime();
+        var io = Executors.newVirtualThreadPerTaskExecutor();
+        var cpu = Executors.newThreadPerTaskExecutor(Thread.ofPlatform().name("pipeline-", 0).factory());
+        try {
+            for (var stage : stages) {
+                ExecutorService executor = stage.io ? io : cpu;
+                for (int i = 0; i < stage.workers; i++) {
+                    executor.execute(stage::work);
+                }
+            }
+            // Fed from its own thread, the first queue blocks once it is full
+            io.execute(() -> {
+                try {
+                    for (var item : items) {
+                        stages.getFirst().input.put(item);
+                    }
+                } catch (InterruptedException e) {
+                    // The run was cancelled
+                }
+            });
+            for (int i = 0; i < items.size(); i++) {
+                done.accept(completed.take());
+            }
+        } finally {
+            io.shutdownNow();
+            cpu.shutdownNow();
+            wallNanos = System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * @return The statistics of every stage in the last run, in stage order.
+     */
+    public List<StageStatistics> statistics() {
+        return stages.stream().map(stage -> stage.statistics(wallNanos)).toList();
+    }
+
+    public static void print(List<StageStatistics> statistics, PrintStream out) {
+        out.printf("%-8s %-12s %6s %9s %6s %9s %10s%n", "Stage", "Workers", "Items", "Busy ms", "Busy", "Queue max", "Queue mean");
+        for (var stage : statistics) {
+            out.printf("%-8s %-12s %6d %9d %5.0f%% %9d %10.2f%n",
+              stage.name(),
+              stage.workers() + (stage.io() ? " virtual" : " platform"),
+              stage.items(),
+              stage.busyNanos() / 1_000_000,
+              stage.utilization() * 100,
+              stage.maxQueued(),
+              stage.meanQueued());
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package ar.edu.itba;
+
+import ar.edu.itba.compression.CompressionAlgorithm;
+import ar.edu.itba.config.CompressionAlgorithmType;
+import ar.edu.itba.config.EncryptionAlgorithmType;
+import ar.edu.itba.config.EncryptionMode;
+import ar.edu.itba.config.ProgramConfig;
+import ar.edu.itba.config.SteganographyAlgorithmType;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves embed and extract jobs over a Unix domain socket, keeping the codecs warm between jobs.
+ * <p>
+ * Each connection carries a single job. Numbers are big endian and strings use {@link DataOutputStream#writeUTF}.
+ * <pre>
+ * request:  int     number of arguments, at most {@value #MAX_ARGUMENTS}, followed by the arguments as strings. They
+ *                   take the same options as the command line: -embed|-extract -steg &lt;method&gt; [-a &lt;alg&gt;]
+ *                   [-m &lt;mode&gt;] [-pass &lt;password&gt;] [-compress &lt;algorithm&gt;]
+ *           string  extension of the secret, with the dot (embed only)
+ *           long    secret length, followed by the secret (embed only)
+ *           long    image length, followed by the bmp image
+ * response: byte    0 on success, 1 on error
+ *           string  error message (errors only)
+ *           string  extension of the secret, with the dot (successful extract only)
+ *           long    result length, followed by the stego image or the extracted secret
+ * </pre>
+ * Every job runs on its own virtual thread. Only the user running the server can connect to the socket.
+ */
+public class StegoServer implements Closeable {
+
+    public static final byte STATUS_OK = 0;
+    public static final byte STATUS_ERROR = 1;
+    /** Far more than any job needs, a bigger count is a malformed request */
+    public static final int MAX_ARGUMENTS = 64;
+
+    private record CodecKey(
+      SteganographyAlgorithmType steg,
+      EncryptionAlgorithmType enc,
+      EncryptionMode mode,
+      CompressionAlgorithmType compression
+    ) {
+    }
+
+    private record Job(boolean embed, CodecKey codec, String password) {
+    }
+
+    private static final Options JOB_OPTIONS = new Options()
+      .addOption("embed", false, "")
+      .addOption("extract", false, "")
+      .addOption("steg", true, "")
+      .addOption("a", true, "")
+      .addOption("m", true, "")
+      .addOption("pass", true, "")
+      .addOption("compress", true, "");
+
+    private final Path socketPath;
+    private final Map<CodecKey, FileCodec> codecs = new ConcurrentHashMap<>();
+    private volatile ServerSocketChannel server;
+
+    public StegoServer(Path socketPath) {
+        this.socketPath = socketPath;
+    }
+
+    private static Job parseJob(DataInputStream request) throws IOException, ParseException {
+        var count = request.readInt();
+        if (count < 0 || count > MAX_ARGUMENTS) {
+            throw new ParseException("Invalid number of arguments " + count + ", at most " + MAX_ARGUMENTS + " are accepted");
+        }
+        var arguments = new String[count];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = request.readUTF();
+        }
+        var cmd = new DefaultParser().parse(JOB_OPTIONS, arguments);
+        if (cmd.hasOption("embed") == cmd.hasOption("extract")) {
+            throw new ParseException("Exactly one of embed or extract must be specified");
+        }
+        if (!cmd.hasOption("steg")) {
+            throw new ParseException("Missing required option: steg");
+        }
+        SteganographyAlgorithmType steg;
+        try {
+            steg = SteganographyAlgorithmType.valueOf(cmd.getOptionValue("steg"));
+        } catch (IllegalArgumentException e) {
+            throw new ParseException("Steganography algorithm not recognized: " + cmd.getOptionValue("steg"));
+        }
+        var enc = ProgramConfig.parseEncryptionAlgorithm(cmd);
+        var mode = ProgramConfig.parseEncryptionMode(cmd);
+        var compression = ProgramConfig.parseCompression(cmd);
+        return new Job(cmd.hasOption("embed"), new CodecKey(steg, enc, mode, compression), cmd.getOptionValue("pass"));
+    }
+
+    private FileCodec codecFor(CodecKey key) {
+        return codecs.computeIfAbsent(key, k -> new FileCodec(
+          Main.createStegoCodec(k.steg()),
+          Main.createEncryption(k.enc(), k.mode()),
+          CompressionAlgorithm.of(k.compression())
+        ));
+    }
+
+    /**
+     * Copies a length prefixed blob from the request into a file.
+     */
+    private static void receive(DataInputStream request, Path file) throws IOException {
+        var length = request.readLong();
+        if (length < 0) {
+            throw new IOException("Invalid length " + length);
+        }
+        try (var out = new BufferedOutputStream(Files.newOutputStream(file))) {
+            var copied = ByteStreams.copy(ByteStreams.limit(request, length), out);
+            if (copied != length) {
+                throw new EOFException("Request ended after " + copied + " of " + length + " bytes");
+            }
+        }
+    }
+
+    private static void send(DataOutputStream response, File file) throws IOException {
+        response.writeLong(file.length());
+        Files.copy(file.toPath(), response);
+    }
+
+    private void handle(SocketChannel channel) {
+        try (channel) {
+            var request = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            var response = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            var workDirectory = Files.createTempDirectory("stegobmp-");
+            try {
+                try {
+                    var job = parseJob(request);
+                    var codec = codecFor(job.codec());
+                    if (job.embed()) {
+                        var extension = request.readUTF();
+                        if (!extension.matches("\\.[\\w-]+")) {
+                            throw new IllegalArgumentException("Invalid secret extension " + extension);
+                        }
+                        var secret = workDirectory.resolve("secret" + extension);
+                        receive(request, secret);
+                        var cover = workDirectory.resolve("cover.bmp");
+                        receive(request, cover);
+                        var stego = codec.embed(
+                          secret.toFile(),
+                          cover.toFile(),
+                          workDirectory.resolve("stego.bmp").toFile(),
+                          job.password()
+                        );
+                        response.writeByte(STATUS_OK);
+                        send(response, stego);
+                    } else {
+                        var stego = workDirectory.resolve("stego.bmp");
+                        receive(request, stego);
+                        var secret = codec.extract(
+                          stego.toFile(),
+                          workDirectory.resolve("secret").toFile(),
+                          job.password()
+                        );
+                        response.writeByte(STATUS_OK);
+                        response.writeUTF(secret.getName().substring("secret".length()));
+                        send(response, secret);
+                    }
+                } catch (Exception e) {
+                    response.writeByte(STATUS_ERROR);
+                    response.writeUTF(e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage());
+                }
+                response.flush();
+            } finally {
+                MoreFiles.deleteRecursively(workDirectory, RecursiveDeleteOption.ALLOW_INSECURE);
+            }
+        } catch (IOException e) {
+            // The client went away, there is no one to report to
+            System.err.println("Could not complete job: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Binds the socket so that only the current user can connect to it. Sockets are created with the permissions the
+     * umask leaves, so it is bound in a private directory and restricted before it is moved into place, otherwise
+     * other users could connect before the permissions change.
+     */
+    private void bind(ServerSocketChannel server) throws IOException {
+        var parent = socketPath.toAbsolutePath().getParent();
+        if (!parent.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            server.bind(UnixDomainSocketAddress.of(socketPath));
+            return;
+        }
+        var privateDirectory = Files.createTempDirectory(
+          parent, ".stegobmp-", PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        try {
+            var privateSocket = privateDirectory.resolve("socket");
+            server.bind(UnixDomainSocketAddress.of(privateSocket));
+            Files.setPosixFilePermissions(privateSocket, PosixFilePermissions.fromString("rw-------"));
+            Files.move(privateSocket, socketPath, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(privateDirectory);
+        }
+    }
+
+    /**
+     * Accepts jobs until the process is stopped or the server is closed. A stale socket file left by a previous run is
+     * replaced.
+     */
+    public void serve() throws IOException {
+        Files.deleteIfExists(socketPath);
+        try (var server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+             var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            this.server = server;
+            bind(server);
+            socketPath.toFile().deleteOnExit();
+            System.out.println("Listening on " + socketPath);
+            while (true) {
+                SocketChannel channel;
+                try {
+                    channel = server.accept();
+                } catch (ClosedChannelException e) {
+                    // Closed by close(), the executor waits for the running jobs
+                    break;
+                }
+                executor.submit(() -> handle(channel));
+            }
+        } finally {
+            Files.deleteIfExists(socketPath);
+        }
+    }
+
+    /**
+     * Stops accepting jobs. {@link #serve} returns once the running ones finish.
+     */
+    @Override
+    public void close() throws IOException {
+        var server = this.server;
+        if (server != null) {
+            server.close();
+        }
+    }
+}
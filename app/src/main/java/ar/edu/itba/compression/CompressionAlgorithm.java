@@ -0,0 +1,35 @@
+package ar.edu.itba.compression;
+
+import ar.edu.itba.config.CompressionAlgorithmType;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+public interface CompressionAlgorithm {
+    /**
+     * @return The type recorded in the message header, which tells the decoder how to decompress it.
+     */
+    CompressionAlgorithmType type();
+
+    /**
+     * Wraps a stream so that the data written to it reaches {@code out} compressed.
+     * Closing the returned stream finishes the compressed data and closes {@code out}.
+     */
+    OutputStream compress(OutputStream out) throws IOException;
+
+    /**
+     * Wraps a stream of compressed data so that it yields the original data as it is read.
+     */
+    InputStream decompress(InputStream in) throws IOException;
+
+    /**
+     * @return The algorithm for the given type, or null for {@link CompressionAlgorithmType#NONE}.
+     */
+    static CompressionAlgorithm of(CompressionAlgorithmType type) {
+        return switch (type) {
+            case NONE -> null;
+            case DEFLATE -> new DeflateCompression();
+        };
+    }
+}
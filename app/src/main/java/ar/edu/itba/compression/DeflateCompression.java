@@ -0,0 +1,64 @@
+package ar.edu.itba.compression;
+
+import ar.edu.itba.config.CompressionAlgorithmType;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Deflate in the zlib format, from the JDK.
+ */
+public class DeflateCompression implements CompressionAlgorithm {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final int level;
+
+    public DeflateCompression() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public DeflateCompression(int level) {
+        this.level = level;
+    }
+
+    @Override
+    public CompressionAlgorithmType type() {
+        return CompressionAlgorithmType.DEFLATE;
+    }
+
+    @Override
+    public OutputStream compress(OutputStream out) {
+        var deflater = new Deflater(level);
+        return new DeflaterOutputStream(out, deflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    // Streams given their own deflater do not release its native memory
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    @Override
+    public InputStream decompress(InputStream in) {
+        var inflater = new Inflater();
+        return new InflaterInputStream(in, inflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
+}
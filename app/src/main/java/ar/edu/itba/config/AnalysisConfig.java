@@ -0,0 +1,20 @@
+package ar.edu.itba.config;
+
+import java.io.File;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.ParseException;
+
+public record AnalysisConfig(
+  File library,
+  int threads // 0 analyzes every image on its own virtual thread
+) {
+    public static AnalysisConfig fromParsed(CommandLine cmd)
+      throws ParseException {
+        var library = new File(cmd.getOptionValue("analyze"));
+        if (!library.isDirectory()) {
+            throw new ParseException("Image library %s is not a directory".formatted(library));
+        }
+        return new AnalysisConfig(library, BatchConfig.parseThreads(cmd));
+    }
+}
@@ -0,0 +1,190 @@
+package ar.edu.itba.config;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.ParseException;
+
+public record BatchConfig(
+  List<File> images,
+  File outputDirectory,
+  File secretMessage,
+  boolean embed,
+  List<SteganographyAlgorithmType> stegs, // empty detects the method of every image when extracting
+  EncryptionAlgorithmType enc,
+  EncryptionMode mode,
+  String password,
+  CompressionAlgorithmType compression,
+  int threads, // 0 runs every job on its own virtual thread
+  boolean pipelined, // runs the stages of the jobs in a pipeline, with threads as its CPU threads
+  long memoryBudget // bytes the running jobs may take together, as FileCodec#footprint estimates them
+) {
+    private static final String IMAGE_EXTENSION = ".bmp";
+    /** Share of the maximum heap that jobs may take when no budget is given */
+    private static final double DEFAULT_BUDGET_SHARE = 0.75;
+
+    /**
+     * Lists the images of a batch. A directory contributes every bmp file in it, any other file is read as a
+     * manifest with one image path per line, relative to the manifest. Blank lines and lines starting with '#'
+     * are skipped.
+     */
+    private static List<File> listImages(File source) throws ParseException {
+        try {
+            if (source.isDirectory()) {
+                try (Stream<Path> files = Files.list(source.toPath())) {
+                    return files
+                      .filter(Files::isRegularFile)
+                      .filter(f -> f.getFileName().toString().toLowerCase().endsWith(IMAGE_EXTENSION))
+                      .sorted()
+                      .map(Path::toFile)
+                      .toList();
+                }
+            }
+            var images = new ArrayList<File>();
+            for (var line : Files.readAllLines(source.toPath())) {
+                line = line.strip();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                var image = source.toPath().resolveSibling(line).toFile();
+                if (!image.isFile() || !image.canRead()) {
+                    throw new ParseException("Image %s listed in the manifest is not a readable file".formatted(image));
+                }
+                images.add(image);
+            }
+            return images;
+        } catch (IOException e) {
+            throw new ParseException("Could not read batch source %s: %s".formatted(source, e.getMessage()));
+        }
+    }
+
+    /**
+     * @return The thread count given with the threads option, or the number of processors if there is none.
+     */
+    static int parseThreads(CommandLine cmd) throws ParseException {
+        var threads = Runtime.getRuntime().availableProcessors();
+        if (cmd.hasOption("threads")) {
+            try {
+                threads = Integer.parseInt(cmd.getOptionValue("threads"));
+            } catch (NumberFormatException e) {
+                threads = -1;
+            }
+            if (threads < 0) {
+                throw new ParseException("Invalid thread count: " + cmd.getOptionValue("threads"));
+            }
+        }
+        return threads;
+    }
+
+    /**
+     * @return The budget given with the memory option, in bytes or with a k, m or g suffix, or three quarters of the
+     * maximum heap if there is none.
+     */
+    static long parseMemoryBudget(CommandLine cmd) throws ParseException {
+        if (!cmd.hasOption("memory")) {
+            return (long) (Runtime.getRuntime().maxMemory() * DEFAULT_BUDGET_SHARE);
+        }
+        var value = cmd.getOptionValue("memory").strip().toLowerCase();
+        var shift = switch (value.isEmpty() ? ' ' : value.charAt(value.length() - 1)) {
+            case 'k' -> 10;
+            case 'm' -> 20;
+            case 'g' -> 30;
+            default -> 0;
+        };
+        try {
+            var number = Long.parseLong(shift == 0 ? value : value.substring(0, value.length() - 1));
+            if (number > 0 && number <= Long.MAX_VALUE >> shift) {
+                return number << shift;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new ParseException("Invalid memory budget: " + cmd.getOptionValue("memory"));
+    }
+
+    public static BatchConfig fromParsed(CommandLine cmd)
+      throws ParseException {
+        // Manually check for required options
+        for (String opt : Arrays.asList("batch", "out", "steg")) {
+            if (!cmd.hasOption(opt)) {
+                throw new ParseException("Missing required option: " + opt);
+            }
+        }
+
+        if (cmd.hasOption("embed") == cmd.hasOption("extract")) {
+            throw new ParseException(
+              "Exactly one of embed or extract must be specified"
+            );
+        }
+
+        boolean embedding = cmd.hasOption("embed");
+
+        File secretMessage = null;
+        if (embedding) {
+            if (!cmd.hasOption("in")) {
+                throw new ParseException("Missing required option: in");
+            }
+            secretMessage = new File(cmd.getOptionValue("in"));
+            if (!secretMessage.isFile() || !secretMessage.canRead()) {
+                throw new ParseException("Secret message file is not a readable file");
+            }
+        }
+
+        var source = new File(cmd.getOptionValue("batch"));
+        if (!source.exists()) {
+            throw new ParseException("Batch source %s does not exist".formatted(source));
+        }
+        var images = listImages(source);
+        if (images.isEmpty()) {
+            throw new ParseException("No images found in " + source);
+        }
+
+        var outputDirectory = new File(cmd.getOptionValue("out"));
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            throw new ParseException("Could not create output directory " + outputDirectory);
+        }
+
+        List<SteganographyAlgorithmType> stegs;
+        if (cmd.getOptionValue("steg").equalsIgnoreCase(ProgramConfig.AUTO_STEG)) {
+            if (embedding) {
+                throw new ParseException("The steganography method can only be detected when extracting");
+            }
+            if (cmd.hasOption("pipeline")) {
+                throw new ParseException("The steganography method cannot be detected in a pipeline");
+            }
+            stegs = List.of();
+        } else {
+            try {
+                stegs = Arrays.stream(cmd.getOptionValue("steg").split(","))
+                  .map(String::strip)
+                  .map(SteganographyAlgorithmType::valueOf)
+                  .distinct()
+                  .toList();
+            } catch (IllegalArgumentException e) {
+                throw new ParseException("Steganography algorithm not recognized: " + cmd.getOptionValue("steg"));
+            }
+        }
+
+        return new BatchConfig(
+          images,
+          outputDirectory,
+          secretMessage,
+          embedding,
+          stegs,
+          ProgramConfig.parseEncryptionAlgorithm(cmd),
+          ProgramConfig.parseEncryptionMode(cmd),
+          cmd.getOptionValue("pass"),
+          ProgramConfig.parseCompression(cmd),
+          parseThreads(cmd),
+          cmd.hasOption("pipeline"),
+          parseMemoryBudget(cmd)
+        );
+    }
+}
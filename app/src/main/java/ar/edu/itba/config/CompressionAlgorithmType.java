@@ -0,0 +1,29 @@
+package ar.edu.itba.config;
+
+public enum CompressionAlgorithmType {
+    NONE(0),
+    DEFLATE(1);
+
+    // Stored in the message header, so existing ids must never change
+    private final int id;
+
+    CompressionAlgorithmType(int id) {
+        this.id = id;
+    }
+
+    public int id() {
+        return id;
+    }
+
+    /**
+     * @throws IllegalArgumentException If no algorithm has the given id.
+     */
+    public static CompressionAlgorithmType fromId(int id) {
+        for (var type : values()) {
+            if (type.id == id) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unknown compression algorithm " + id);
+    }
+}
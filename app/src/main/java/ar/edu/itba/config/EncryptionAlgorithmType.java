@@ -5,7 +5,9 @@ public enum EncryptionAlgorithmType {
     AES128("AES128", "AES", 128, 16),
     AES192("AES192", "AES", 192, 16),
     AES256("AES256", "AES", 256, 16),
-    _3DES("3DES", "DESede", 192, 8);
+    _3DES("3DES", "DESede", 192, 8),
+    // Always authenticated with Poly1305, whatever the mode
+    CHACHA20("ChaCha20-Poly1305", "ChaCha20", 256, 12);
 
     private final String name;
     private final String algorithm;
@@ -4,7 +4,9 @@ public enum EncryptionMode {
     ECB("ECB"),
     CBC("CBC"),
     CFB("CFB8"),
-    OFB("OFB");
+    OFB("OFB"),
+    // Authenticated, a random nonce is sent before the ciphertext and a tag after it
+    GCM("GCM");
 
     private final String mode;
     EncryptionMode(String mode) {
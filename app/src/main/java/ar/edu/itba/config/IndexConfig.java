@@ -0,0 +1,50 @@
+package ar.edu.itba.config;
+
+import java.io.File;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.ParseException;
+
+public record IndexConfig(
+  File library,
+  File secretMessage, // null when only indexing
+  SteganographyAlgorithmType steg,
+  EncryptionAlgorithmType enc,
+  EncryptionMode mode,
+  CompressionAlgorithmType compression
+) {
+    public static IndexConfig fromParsed(CommandLine cmd)
+      throws ParseException {
+        var library = new File(cmd.getOptionValue("index"));
+        if (!library.isDirectory()) {
+            throw new ParseException("Cover library %s is not a directory".formatted(library));
+        }
+
+        if (!cmd.hasOption("in")) {
+            return new IndexConfig(library, null, null, EncryptionAlgorithmType.PLAIN_TEXT, null, CompressionAlgorithmType.NONE);
+        }
+
+        var secretMessage = new File(cmd.getOptionValue("in"));
+        if (!secretMessage.isFile() || !secretMessage.canRead()) {
+            throw new ParseException("Secret message file is not a readable file");
+        }
+        if (!cmd.hasOption("steg")) {
+            throw new ParseException("Missing required option: steg");
+        }
+        SteganographyAlgorithmType steg;
+        try {
+            steg = SteganographyAlgorithmType.valueOf(cmd.getOptionValue("steg"));
+        } catch (IllegalArgumentException e) {
+            throw new ParseException("Steganography algorithm not recognized: " + cmd.getOptionValue("steg"));
+        }
+
+        return new IndexConfig(
+          library,
+          secretMessage,
+          steg,
+          ProgramConfig.parseEncryptionAlgorithmType(cmd),
+          ProgramConfig.parseEncryptionMode(cmd),
+          ProgramConfig.parseCompression(cmd)
+        );
+    }
+}
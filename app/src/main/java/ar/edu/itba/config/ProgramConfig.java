@@ -11,11 +11,98 @@ public record ProgramConfig(
   File stegoImage, // TODO: rename to output file
   File coverImage,
   boolean embed,
-  SteganographyAlgorithmType steg,
+  SteganographyAlgorithmType steg, // null detects the method when extracting
   EncryptionAlgorithmType enc,
   EncryptionMode mode,
-  String password
+  String password,
+  CompressionAlgorithmType compression
 ) {
+    /** Value of the steg option that detects the method of the stego image */
+    public static final String AUTO_STEG = "auto";
+
+    public ProgramConfig(
+      File secretMessage,
+      File stegoImage,
+      File coverImage,
+      boolean embed,
+      SteganographyAlgorithmType steg,
+      EncryptionAlgorithmType enc,
+      EncryptionMode mode,
+      String password
+    ) {
+        this(secretMessage, stegoImage, coverImage, embed, steg, enc, mode, password, CompressionAlgorithmType.NONE);
+    }
+
+    /**
+     * @return The method named by the steg option, or null if it asks for the method to be detected.
+     */
+    public static SteganographyAlgorithmType parseSteganographyAlgorithm(CommandLine cmd, boolean embedding)
+      throws ParseException {
+        var value = cmd.getOptionValue("steg");
+        if (value.equalsIgnoreCase(AUTO_STEG)) {
+            if (embedding) {
+                throw new ParseException("The steganography method can only be detected when extracting");
+            }
+            return null;
+        }
+        try {
+            return SteganographyAlgorithmType.valueOf(value);
+        } catch (IllegalArgumentException e) {
+            throw new ParseException("Steganography algorithm not recognized: " + value);
+        }
+    }
+
+    public static CompressionAlgorithmType parseCompression(CommandLine cmd)
+      throws ParseException {
+        if (!cmd.hasOption("compress")) {
+            return CompressionAlgorithmType.NONE;
+        }
+        try {
+            return CompressionAlgorithmType.valueOf(cmd.getOptionValue("compress").toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new ParseException("Compression algorithm not recognized: " + cmd.getOptionValue("compress"));
+        }
+    }
+
+    public static EncryptionAlgorithmType parseEncryptionAlgorithm(CommandLine cmd)
+      throws ParseException {
+        var algorithm = parseEncryptionAlgorithmType(cmd);
+        if (algorithm != EncryptionAlgorithmType.PLAIN_TEXT && !cmd.hasOption("pass")) {
+            throw new ParseException(
+              "Password is required when using encryption"
+            );
+        }
+        return algorithm;
+    }
+
+    /**
+     * Same as {@link #parseEncryptionAlgorithm(CommandLine)}, for commands that never encrypt and do not need the
+     * password.
+     */
+    public static EncryptionAlgorithmType parseEncryptionAlgorithmType(CommandLine cmd) {
+        if (!cmd.hasOption("a") && !cmd.hasOption("m")) {
+            return EncryptionAlgorithmType.PLAIN_TEXT;
+        }
+        return cmd.hasOption("a")
+                 ? switch (cmd.getOptionValue("a").toLowerCase()) {
+            case "aes128" -> EncryptionAlgorithmType.AES128;
+            case "aes192" -> EncryptionAlgorithmType.AES192;
+            case "aes256" -> EncryptionAlgorithmType.AES256;
+            case "3des" -> EncryptionAlgorithmType._3DES;
+            case "chacha20" -> EncryptionAlgorithmType.CHACHA20;
+            default ->
+              throw new RuntimeException(String.format("Encryption algorithm %s not recognized", cmd.getOptionValue("a")));
+        }
+                 : EncryptionAlgorithmType.AES128;
+    }
+
+    public static EncryptionMode parseEncryptionMode(CommandLine cmd) {
+        if (cmd.hasOption("m")) {
+            return EncryptionMode.valueOf(cmd.getOptionValue("m").toUpperCase());
+        }
+        return EncryptionMode.CBC;
+    }
+
     public static ProgramConfig fromParsed(CommandLine cmd)
       throws ParseException {
         // Manually check for required options
@@ -77,38 +164,18 @@ public record ProgramConfig(
         if (embedding && !stegoImage.canWrite()) {
             throw new ParseException("Stego image file is not writable");
         }
-        var encAlgorithm = EncryptionAlgorithmType.PLAIN_TEXT;
-
-        var encMode = EncryptionMode.CBC;
-        if (cmd.hasOption("a") || cmd.hasOption("m")) {
-            if (!cmd.hasOption("pass")) {
-                throw new ParseException(
-                  "Password is required when using encryption"
-                );
-            }
-            encAlgorithm = cmd.hasOption("a")
-                             ? switch (cmd.getOptionValue("a").toLowerCase()) {
-                case "aes128" -> EncryptionAlgorithmType.AES128;
-                case "aes192" -> EncryptionAlgorithmType.AES192;
-                case "aes256" -> EncryptionAlgorithmType.AES256;
-                case "3des" -> EncryptionAlgorithmType._3DES;
-                default ->
-                  throw new RuntimeException(String.format("Encryption algorithm %s not recognized", cmd.getOptionValue("a")));
-            }
-                             : EncryptionAlgorithmType.AES128;
-            if (cmd.hasOption("m")) {
-                encMode = EncryptionMode.valueOf(cmd.getOptionValue("m").toUpperCase());
-            }
-        }
+        var encAlgorithm = parseEncryptionAlgorithm(cmd);
+        var encMode = parseEncryptionMode(cmd);
         return new ProgramConfig(
           secretMessage,
           stegoImage,
           coverImage,
           embedding,
-          SteganographyAlgorithmType.valueOf(cmd.getOptionValue("steg")),
+          parseSteganographyAlgorithm(cmd, embedding),
           encAlgorithm,
           encMode,
-          cmd.getOptionValue("pass")
+          cmd.getOptionValue("pass"),
+          parseCompression(cmd)
         );
     }
 }
@@ -0,0 +1,82 @@
+package ar.edu.itba.config;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.ParseException;
+
+public record ShardConfig(
+  List<File> images, // covers when embedding, stego images in any order when extracting
+  File output, // base name of the stego images when embedding, extracted file when extracting
+  File secretMessage,
+  boolean embed,
+  SteganographyAlgorithmType steg,
+  EncryptionAlgorithmType enc,
+  EncryptionMode mode,
+  String password,
+  CompressionAlgorithmType compression
+) {
+    public static ShardConfig fromParsed(CommandLine cmd)
+      throws ParseException {
+        // Manually check for required options
+        for (String opt : Arrays.asList("covers", "out", "steg")) {
+            if (!cmd.hasOption(opt)) {
+                throw new ParseException("Missing required option: " + opt);
+            }
+        }
+
+        if (cmd.hasOption("embed") == cmd.hasOption("extract")) {
+            throw new ParseException(
+              "Exactly one of embed or extract must be specified"
+            );
+        }
+
+        boolean embedding = cmd.hasOption("embed");
+
+        File secretMessage = null;
+        if (embedding) {
+            if (!cmd.hasOption("in")) {
+                throw new ParseException("Missing required option: in");
+            }
+            secretMessage = new File(cmd.getOptionValue("in"));
+            if (!secretMessage.isFile() || !secretMessage.canRead()) {
+                throw new ParseException("Secret message file is not a readable file");
+            }
+        }
+
+        var images = Arrays.stream(cmd.getOptionValue("covers").split(","))
+          .map(String::strip)
+          .filter(path -> !path.isEmpty())
+          .map(File::new)
+          .toList();
+        if (images.isEmpty()) {
+            throw new ParseException("No images given in covers");
+        }
+        for (var image : images) {
+            if (!image.isFile() || !image.canRead()) {
+                throw new ParseException("Image %s is not a readable file".formatted(image));
+            }
+        }
+
+        SteganographyAlgorithmType steg;
+        try {
+            steg = SteganographyAlgorithmType.valueOf(cmd.getOptionValue("steg"));
+        } catch (IllegalArgumentException e) {
+            throw new ParseException("Steganography algorithm not recognized: " + cmd.getOptionValue("steg"));
+        }
+
+        return new ShardConfig(
+          images,
+          new File(cmd.getOptionValue("out")),
+          secretMessage,
+          embedding,
+          steg,
+          ProgramConfig.parseEncryptionAlgorithm(cmd),
+          ProgramConfig.parseEncryptionMode(cmd),
+          cmd.getOptionValue("pass"),
+          ProgramConfig.parseCompression(cmd)
+        );
+    }
+}
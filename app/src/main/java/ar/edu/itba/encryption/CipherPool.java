@@ -0,0 +1,42 @@
+package ar.edu.itba.encryption;
+
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Lock-free pool of {@link Cipher} instances, grouped by transformation.
+ * A borrowed cipher belongs to a single caller until it is released, so codecs that take their ciphers from the
+ * pool can be shared between threads. The pool only grows up to the number of ciphers in use at the same time.
+ */
+public class CipherPool {
+    private final ConcurrentMap<String, Queue<Cipher>> idle = new ConcurrentHashMap<>();
+
+    private Queue<Cipher> idle(String transformation) {
+        return idle.computeIfAbsent(transformation, t -> new ConcurrentLinkedQueue<>());
+    }
+
+    /**
+     * Takes an idle cipher for the transformation, or creates one if there is none.
+     * The cipher must be initialized before use, it may hold the state of a previous caller.
+     */
+    public Cipher borrow(String transformation) throws NoSuchAlgorithmException, NoSuchPaddingException {
+        var cipher = idle(transformation).poll();
+        return cipher != null ? cipher : Cipher.getInstance(transformation);
+    }
+
+    /**
+     * Returns a cipher to the pool. The caller must not use it afterwards.
+     */
+    public void release(Cipher cipher) {
+        idle(cipher.getAlgorithm()).offer(cipher);
+    }
+
+    public int idleCount(String transformation) {
+        return idle(transformation).size();
+    }
+}
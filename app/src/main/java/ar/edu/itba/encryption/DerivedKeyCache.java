@@ -0,0 +1,142 @@
+package ar.edu.itba.encryption;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Bounded, thread-safe cache of the key material derived from a password.
+ * Entries are looked up by a SHA-256 hash of every derivation input, so passwords are never kept as keys.
+ * The cached bytes are wiped when an entry is evicted, either for size or after going unused for the TTL.
+ */
+public class DerivedKeyCache {
+
+    @FunctionalInterface
+    public interface KeyDerivation {
+        byte[] derive() throws NoSuchAlgorithmException;
+    }
+
+    private static class Entry {
+        private final byte[] material;
+        private final int keyLength;
+        private boolean destroyed = false;
+
+        Entry(byte[] material, int keyLength) {
+            this.material = material;
+            this.keyLength = keyLength;
+        }
+
+        /**
+         * @return The parameters built from a copy of the material, or null if it was already wiped.
+         */
+        synchronized EncryptionCodec.DerivedParameters toParameters(String algorithm) {
+            if (destroyed) {
+                return null;
+            }
+            var ivLength = material.length - keyLength;
+            return new EncryptionCodec.DerivedParameters(
+              new SecretKeySpec(material, 0, keyLength, algorithm),
+              ivLength > 0 ? new IvParameterSpec(material, keyLength, ivLength) : null
+            );
+        }
+
+        synchronized void destroy() {
+            Arrays.fill(material, (byte) 0);
+            destroyed = true;
+        }
+    }
+
+    private final Cache<HashCode, Entry> cache;
+
+    public DerivedKeyCache(long maximumSize, Duration timeToLive) {
+        this.cache = CacheBuilder.newBuilder()
+          .maximumSize(maximumSize)
+          .expireAfterAccess(timeToLive)
+          .recordStats()
+          .removalListener((RemovalListener<HashCode, Entry>) notification -> notification.getValue().destroy())
+          .build();
+    }
+
+    private static HashCode cacheKey(String algorithm, String password, byte[] salt, int iterations, int keySize, int ivSize) {
+        return Hashing.sha256().newHasher()
+          .putString(algorithm, StandardCharsets.UTF_8)
+          .putString(password, StandardCharsets.UTF_8)
+          .putInt(salt.length)
+          .putBytes(salt)
+          .putInt(iterations)
+          .putInt(keySize)
+          .putInt(ivSize)
+          .hash();
+    }
+
+    /**
+     * Returns the key and IV for the given inputs, running the derivation only if they are not cached.
+     * Concurrent lookups of the same inputs wait for a single derivation.
+     * @param keySize Size of the key in bits.
+     * @param ivSize Size of the IV in bytes, 0 if no IV is needed.
+     * @param derivation Produces the key bytes followed by the IV bytes.
+     * @return The derived parameters. The IV is null when {@code ivSize} is 0.
+     */
+    public EncryptionCodec.DerivedParameters get(
+      String algorithm,
+      String password,
+      byte[] salt,
+      int iterations,
+      int keySize,
+      int ivSize,
+      KeyDerivation derivation
+    ) throws NoSuchAlgorithmException {
+        var key = cacheKey(algorithm, password, salt, iterations, keySize, ivSize);
+        while (true) {
+            Entry entry;
+            try {
+                entry = cache.get(key, () -> new Entry(derivation.derive(), keySize / 8));
+            } catch (ExecutionException e) {
+                Throwables.throwIfInstanceOf(e.getCause(), NoSuchAlgorithmException.class);
+                throw new IllegalStateException("Could not derive key", e.getCause());
+            } catch (UncheckedExecutionException e) {
+                Throwables.throwIfUnchecked(e.getCause());
+                throw e;
+            }
+            var parameters = entry.toParameters(algorithm);
+            if (parameters != null) {
+                return parameters;
+            }
+            // The entry was evicted and wiped between the lookup and now, derive it again
+            cache.asMap().remove(key, entry);
+        }
+    }
+
+    public long hitCount() {
+        return cache.stats().hitCount();
+    }
+
+    public long missCount() {
+        return cache.stats().missCount();
+    }
+
+    public long evictionCount() {
+        return cache.stats().evictionCount();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    /** Evicts and wipes every entry */
+    public void clear() {
+        cache.invalidateAll();
+    }
+}
@@ -2,6 +2,8 @@ package ar.edu.itba.encryption;
 
 import ar.edu.itba.config.EncryptionMode;
 
+import java.io.InputStream;
+
 public interface EncryptionAlgorithm {
     byte[] encrypt(
         byte[] data,
@@ -11,4 +13,43 @@ public interface EncryptionAlgorithm {
         byte[] data,
         String password
     );
+
+    /**
+     * Wraps a stream so that it yields the encrypted version of its contents.
+     * Data is encrypted as it is read, so the plaintext never needs to be fully in memory.
+     */
+    InputStream encrypt(
+        InputStream data,
+        String password
+    );
+
+    /**
+     * Wraps a stream of encrypted data so that it yields the decrypted contents as they are read.
+     * The stream must end where the ciphertext ends. Authenticated algorithms hold the whole ciphertext in memory
+     * until its tag is checked, see {@link #maxEncryptedLength()}.
+     */
+    InputStream decrypt(
+        InputStream data,
+        String password
+    );
+
+    /**
+     * @return The size of the ciphertext produced for a plaintext of the given length.
+     */
+    long encryptedLength(long length);
+
+    /**
+     * @return Whether decrypting checks a tag that covers the whole message.
+     */
+    default boolean isAuthenticated() {
+        return false;
+    }
+
+    /**
+     * @return The longest ciphertext the algorithm accepts. Unlimited unless decrypting keeps the whole message in
+     * memory.
+     */
+    default long maxEncryptedLength() {
+        return Long.MAX_VALUE;
+    }
 }
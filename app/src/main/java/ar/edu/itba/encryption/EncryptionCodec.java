@@ -4,14 +4,25 @@ import ar.edu.itba.config.EncryptionAlgorithmType;
 import ar.edu.itba.config.EncryptionMode;
 
 import javax.crypto.*;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
 import java.security.spec.InvalidKeySpecException;
+import java.time.Duration;
 import java.util.Arrays;
 
 import ar.edu.itba.utils.EnvUtils;
@@ -25,24 +36,75 @@ public class EncryptionCodec implements EncryptionAlgorithm {
     private static final int SALT_SIZE = Long.SIZE / 8;
     private static final long SALT;
     private static final long DEFAULT_SALT = 0x0000000000000000;
+    private static final long DEFAULT_KEY_CACHE_SIZE = 64;
+    private static final long DEFAULT_KEY_CACHE_TTL_SECONDS = 600;
+    private static final DerivedKeyCache KEY_CACHE;
+    private static final CipherPool CIPHER_POOL = new CipherPool();
+    /** Key factories are not thread-safe, so every thread keeps its own instead of looking one up per derivation */
+    private static final ThreadLocal<SecretKeyFactory> KEY_FACTORY = new ThreadLocal<>();
+    private static final int NONCE_SIZE = 12;
+    private static final int TAG_SIZE = 16;
+    private static final SecureRandom NONCE_GENERATOR = new SecureRandom();
+    /**
+     * The JDK ciphers buffer an authenticated message whole before checking its tag, and then copy it out, so these
+     * messages are limited to keep that copy well inside the heap
+     */
+    private static final long DEFAULT_MAX_AUTHENTICATED_LENGTH = 64L * 1024 * 1024;
+    private static final long MAX_AUTHENTICATED_LENGTH;
 
     static {
         SALT = EnvUtils.getLong("SALT", v -> Long.parseLong(v.substring(2)), DEFAULT_SALT);
         ITERATION_COUNT = EnvUtils.getInt("KEY_ITERATIONS", DEFAULT_ITERATION_COUNT);
+        MAX_AUTHENTICATED_LENGTH = EnvUtils.getLong("MAX_AUTHENTICATED_LENGTH", DEFAULT_MAX_AUTHENTICATED_LENGTH);
+        KEY_CACHE = new DerivedKeyCache(
+          EnvUtils.getLong("KEY_CACHE_SIZE", DEFAULT_KEY_CACHE_SIZE),
+          Duration.ofSeconds(EnvUtils.getLong("KEY_CACHE_TTL", DEFAULT_KEY_CACHE_TTL_SECONDS))
+        );
     }
 
     private final EncryptionAlgorithmType algorithmType;
     private final EncryptionMode encryptionMode;
-    private final Cipher cipher;
+    private final String transformation;
+
+    /**
+     * Stream over a pooled cipher, which goes back to the pool when the stream is closed.
+     */
+    private static class PooledCipherInputStream extends CipherInputStream {
+        private final Cipher cipher;
+        private boolean released = false;
+
+        PooledCipherInputStream(InputStream data, Cipher cipher) {
+            super(data, cipher);
+            this.cipher = cipher;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (!released) {
+                    released = true;
+                    CIPHER_POOL.release(cipher);
+                }
+            }
+        }
+    }
 
     public EncryptionCodec(EncryptionAlgorithmType algorithmType, EncryptionMode mode) {
         if (algorithmType.equals(EncryptionAlgorithmType.PLAIN_TEXT)) {
             throw new IllegalArgumentException("PLAIN TEXT encryption is not a valid algorithm");
         }
+        if (!supports(algorithmType, mode)) {
+            throw new IllegalArgumentException(
+              algorithmType.algorithmName() + " cannot be used in " + mode.value() + " mode");
+        }
         this.algorithmType = algorithmType;
         this.encryptionMode = mode;
+        this.transformation = buildTransformation(algorithmType.algorithm(), mode);
         try {
-            this.cipher = Cipher.getInstance(buildTransformation(algorithmType.algorithm(), mode));
+            // Fail early on unsupported transformations, leaving a cipher ready in the pool
+            CIPHER_POOL.release(CIPHER_POOL.borrow(transformation));
         } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
             throw new RuntimeException(e);
         }
@@ -54,58 +116,206 @@ public class EncryptionCodec implements EncryptionAlgorithm {
         return buffer.array();
     }
 
+    /**
+     * @return Whether the algorithm can be used in the given mode. GCM is only available for AES.
+     */
+    public static boolean supports(EncryptionAlgorithmType algorithmType, EncryptionMode mode) {
+        return !mode.equals(EncryptionMode.GCM)
+          || algorithmType.algorithm().equals("AES")
+          || algorithmType.equals(EncryptionAlgorithmType.CHACHA20);
+    }
+
+    /**
+     * Authenticated encryption detects a wrong password or a modified message instead of returning garbage.
+     * Every message gets a random nonce, so ciphertexts are never reused even though keys are derived with a fixed
+     * salt.
+     */
+    public static boolean isAuthenticated(EncryptionAlgorithmType algorithmType, EncryptionMode mode) {
+        return algorithmType.equals(EncryptionAlgorithmType.CHACHA20) || mode.equals(EncryptionMode.GCM);
+    }
+
     @Override
-    public byte[] encrypt(byte[] data, String password) {
+    public boolean isAuthenticated() {
+        return isAuthenticated(algorithmType, encryptionMode);
+    }
+
+    /**
+     * @return For authenticated modes, the {@code MAX_AUTHENTICATED_LENGTH} environment variable, 64 MiB by default.
+     */
+    @Override
+    public long maxEncryptedLength() {
+        return isAuthenticated() ? MAX_AUTHENTICATED_LENGTH : Long.MAX_VALUE;
+    }
+
+    private static byte[] newNonce() {
+        var nonce = new byte[NONCE_SIZE];
+        NONCE_GENERATOR.nextBytes(nonce);
+        return nonce;
+    }
+
+    private AlgorithmParameterSpec nonceParameters(byte[] nonce, int offset) {
+        if (algorithmType.equals(EncryptionAlgorithmType.CHACHA20)) {
+            return new IvParameterSpec(nonce, offset, NONCE_SIZE);
+        }
+        return new GCMParameterSpec(TAG_SIZE * 8, nonce, offset, NONCE_SIZE);
+    }
+
+    /**
+     * Borrows a cipher from the pool and initializes it. The caller must release it when done.
+     */
+    private Cipher initCipher(int opmode, String password) {
+        return initCipher(opmode, password, null, 0);
+    }
+
+    /**
+     * @param nonce Array holding the nonce of an authenticated message, ignored by the other modes.
+     */
+    private Cipher initCipher(int opmode, String password, byte[] nonce, int nonceOffset) {
+        Cipher cipher;
+        try {
+            cipher = CIPHER_POOL.borrow(transformation);
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+            throw new RuntimeException(e);
+        }
+        var initialized = false;
         try {
             byte[] salt = getSalt();
 
-            if (encryptionMode.equals(EncryptionMode.ECB)) {
+            if (isAuthenticated()) {
+                // The nonce changes with every message, only the key comes from the password
+                var key = deriveKey(algorithmType.algorithm(), password, salt, algorithmType.keySize());
+                cipher.init(opmode, key, nonceParameters(nonce, nonceOffset));
+            } else if (encryptionMode.equals(EncryptionMode.ECB)) {
                 // ECB mode does not use IV
                 var key = deriveKey(algorithmType.algorithm(), password, salt, algorithmType.keySize());
-                cipher.init(Cipher.ENCRYPT_MODE, key);
-                return cipher.doFinal(data);
+                cipher.init(opmode, key);
+            } else {
+                var parameters = deriveKeyAndIV(algorithmType.algorithm(), password, salt, algorithmType.keySize(), algorithmType.ivSize());
+                cipher.init(opmode, parameters.key(), parameters.iv());
             }
-            var parameters = deriveKeyAndIV(algorithmType.algorithm(), password, salt, algorithmType.keySize(), algorithmType.ivSize());
-
-            // Encrypt the text
-            cipher.init(Cipher.ENCRYPT_MODE, parameters.key(), parameters.iv());
-            return cipher.doFinal(data);
+            initialized = true;
+            return cipher;
         } catch (NoSuchAlgorithmException | InvalidAlgorithmParameterException e) {
             throw new RuntimeException("Could not initialize " + algorithmType.algorithmName() + " algorithm", e);
         } catch (InvalidKeyException e) {
             throw new RuntimeException("Invalid key", e);
+        } finally {
+            if (!initialized) {
+                CIPHER_POOL.release(cipher);
+            }
+        }
+    }
+
+    @Override
+    public byte[] encrypt(byte[] data, String password) {
+        if (isAuthenticated()) {
+            return encryptAuthenticated(data, password);
+        }
+        var cipher = initCipher(Cipher.ENCRYPT_MODE, password);
+        try {
+            return cipher.doFinal(data);
         } catch (IllegalBlockSizeException e) {
             throw new RuntimeException("Invalid block size selected", e);
         } catch (BadPaddingException e) {
             throw new RuntimeException(e);
+        } finally {
+            CIPHER_POOL.release(cipher);
+        }
+    }
+
+    private byte[] encryptAuthenticated(byte[] data, String password) {
+        var nonce = newNonce();
+        var cipher = initCipher(Cipher.ENCRYPT_MODE, password, nonce, 0);
+        try {
+            var encrypted = new byte[NONCE_SIZE + cipher.getOutputSize(data.length)];
+            System.arraycopy(nonce, 0, encrypted, 0, NONCE_SIZE);
+            var length = NONCE_SIZE + cipher.doFinal(data, 0, data.length, encrypted, NONCE_SIZE);
+            return length == encrypted.length ? encrypted : Arrays.copyOf(encrypted, length);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        } finally {
+            CIPHER_POOL.release(cipher);
         }
     }
 
     @Override
     public byte[] decrypt(byte[] data, String password) {
+        if (isAuthenticated()) {
+            return decryptAuthenticated(data, password);
+        }
+        var cipher = initCipher(Cipher.DECRYPT_MODE, password);
         try {
-            byte[] salt = getSalt();
-            if (encryptionMode.equals(EncryptionMode.ECB)) {
-                // ECB mode does not use IV
-                var key = deriveKey(algorithmType.algorithm(), password, salt, algorithmType.keySize());
-
-                cipher.init(Cipher.DECRYPT_MODE, key);
-                return cipher.doFinal(data);
-            }
-
-            var parameters = deriveKeyAndIV(algorithmType.algorithm(), password, salt, algorithmType.keySize(), algorithmType.ivSize());
-
-            cipher.init(Cipher.DECRYPT_MODE, parameters.key(), parameters.iv());
             return cipher.doFinal(data);
-        } catch (NoSuchAlgorithmException | InvalidAlgorithmParameterException e) {
-            throw new RuntimeException("Could not initialize " + algorithmType.algorithmName() + " algorithm", e);
-        } catch (InvalidKeyException e) {
-            throw new RuntimeException("Invalid key", e);
         } catch (IllegalBlockSizeException e) {
             throw new RuntimeException("Invalid block size selected", e);
         } catch (BadPaddingException e) {
             throw new RuntimeException(e);
+        } finally {
+            CIPHER_POOL.release(cipher);
+        }
+    }
+
+    private byte[] decryptAuthenticated(byte[] data, String password) {
+        if (data.length < NONCE_SIZE + TAG_SIZE) {
+            throw new IllegalArgumentException("Message is too short to be encrypted with " + algorithmType.algorithmName());
+        }
+        var cipher = initCipher(Cipher.DECRYPT_MODE, password, data, 0);
+        try {
+            return cipher.doFinal(data, NONCE_SIZE, data.length - NONCE_SIZE);
+        } catch (AEADBadTagException e) {
+            throw new RuntimeException("Wrong password or the message was modified", e);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        } finally {
+            CIPHER_POOL.release(cipher);
+        }
+    }
+
+    @Override
+    public InputStream encrypt(InputStream data, String password) {
+        if (isAuthenticated()) {
+            var nonce = newNonce();
+            return new SequenceInputStream(
+              new ByteArrayInputStream(nonce),
+              new PooledCipherInputStream(data, initCipher(Cipher.ENCRYPT_MODE, password, nonce, 0))
+            );
+        }
+        return new PooledCipherInputStream(data, initCipher(Cipher.ENCRYPT_MODE, password));
+    }
+
+    /**
+     * For authenticated modes the returned stream fails with an IOException if the password is wrong or the message
+     * was modified. The JDK ciphers hold back the whole message until its tag is checked, so nothing unauthenticated
+     * is ever returned, and callers must keep ciphertexts within {@link #maxEncryptedLength()}.
+     */
+    @Override
+    public InputStream decrypt(InputStream data, String password) {
+        if (isAuthenticated()) {
+            byte[] nonce;
+            try {
+                nonce = data.readNBytes(NONCE_SIZE);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (nonce.length != NONCE_SIZE) {
+                throw new UncheckedIOException(new EOFException("Message ended before its nonce"));
+            }
+            return new PooledCipherInputStream(data, initCipher(Cipher.DECRYPT_MODE, password, nonce, 0));
+        }
+        return new PooledCipherInputStream(data, initCipher(Cipher.DECRYPT_MODE, password));
+    }
+
+    @Override
+    public long encryptedLength(long length) {
+        if (isAuthenticated()) {
+            return NONCE_SIZE + length + TAG_SIZE;
+        }
+        if (!usesPadding(encryptionMode)) {
+            return length;
         }
+        // Padding always adds at least one byte, so a full block is added when the length is already aligned
+        var blockSize = algorithmType.ivSize();
+        return (length / blockSize + 1) * blockSize;
     }
 
     public enum PaddingScheme {
@@ -131,40 +341,60 @@ public class EncryptionCodec implements EncryptionAlgorithm {
         return algorithm + "/" + mode.value() + "/" + padding.value();
     }
 
+    private static boolean usesPadding(EncryptionMode mode) {
+        return !(mode.equals(EncryptionMode.OFB) || mode.equals(EncryptionMode.CFB) || mode.equals(EncryptionMode.GCM));
+    }
+
     public static String buildTransformation(String algorithm, EncryptionMode mode) {
-        if (mode.equals(EncryptionMode.OFB) || mode.equals(EncryptionMode.CFB)) {
-            return algorithm + "/" + mode.value() + "/NoPadding"; // OFB and CFB modes do not use padding
+        if (algorithm.equals(EncryptionAlgorithmType.CHACHA20.algorithm())) {
+            return "ChaCha20-Poly1305"; // A stream cipher with its own authentication, it has no modes
+        }
+        if (!usesPadding(mode)) {
+            return algorithm + "/" + mode.value() + "/NoPadding"; // OFB, CFB and GCM modes do not use padding
         }
         return algorithm + "/" + mode.value() + "/" + DEFAULT_PADDING.value();
     }
 
-    public static SecretKeySpec deriveKey(String algorithm, String password, byte[] salt, int keySize) throws
-      NoSuchAlgorithmException {
-        if (!(algorithm.equals("AES") || algorithm.equals("DESede"))) {
-            throw new IllegalArgumentException("Unsupported algorithm: " + algorithm);
+    /**
+     * @return The cache shared by every codec for the keys derived from passwords.
+     */
+    public static DerivedKeyCache keyCache() {
+        return KEY_CACHE;
+    }
+
+    private static SecretKeyFactory keyFactory() throws NoSuchAlgorithmException {
+        var keyFactory = KEY_FACTORY.get();
+        if (keyFactory == null) {
+            keyFactory = SecretKeyFactory.getInstance(SECRET_KEY_FACTORY_ALGORITHM);
+            KEY_FACTORY.set(keyFactory);
         }
-        PBEKeySpec keySpec = new PBEKeySpec(password.toCharArray(), salt, ITERATION_COUNT, keySize);        SecretKeyFactory keyFactory = SecretKeyFactory.getInstance(SECRET_KEY_FACTORY_ALGORITHM);
+        return keyFactory;
+    }
+
+    private static byte[] generateKeyBytes(String password, byte[] salt, int size) throws NoSuchAlgorithmException {
+        PBEKeySpec keySpec = new PBEKeySpec(password.toCharArray(), salt, ITERATION_COUNT, size);
         try {
-            byte[] keyBytes = keyFactory.generateSecret(keySpec).getEncoded();
-            return new SecretKeySpec(keyBytes, algorithm);
+            return keyFactory().generateSecret(keySpec).getEncoded();
         } catch (InvalidKeySpecException e) {
             throw new IllegalArgumentException("Invalid key spec", e);
+        } finally {
+            keySpec.clearPassword();
+        }
+    }
+
+    public static SecretKeySpec deriveKey(String algorithm, String password, byte[] salt, int keySize) throws
+      NoSuchAlgorithmException {
+        if (!(algorithm.equals("AES") || algorithm.equals("DESede") || algorithm.equals("ChaCha20"))) {
+            throw new IllegalArgumentException("Unsupported algorithm: " + algorithm);
         }
+        return KEY_CACHE.get(algorithm, password, salt, ITERATION_COUNT, keySize, 0,
+          () -> generateKeyBytes(password, salt, keySize)).key();
     }
 
     public record DerivedParameters(SecretKeySpec key, IvParameterSpec iv) {}
 
     public static DerivedParameters deriveKeyAndIV(String algorithm, String password, byte[] salt, int keySize, int ivSize) throws NoSuchAlgorithmException {
-        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, ITERATION_COUNT, keySize + ivSize * 8);
-        SecretKeyFactory keyFactory = SecretKeyFactory.getInstance(SECRET_KEY_FACTORY_ALGORITHM);
-        try {
-            var generatedBytes = keyFactory.generateSecret(spec).getEncoded();
-            return new DerivedParameters(
-              new SecretKeySpec(Arrays.copyOfRange(generatedBytes, 0, keySize / 8), algorithm),
-              new IvParameterSpec(Arrays.copyOfRange(generatedBytes, keySize / 8, keySize / 8 + ivSize))
-            );
-        } catch (InvalidKeySpecException e) {
-            throw new IllegalArgumentException("Invalid key spec", e);
-        }
+        return KEY_CACHE.get(algorithm, password, salt, ITERATION_COUNT, keySize, ivSize,
+          () -> generateKeyBytes(password, salt, keySize + ivSize * 8));
     }
 }
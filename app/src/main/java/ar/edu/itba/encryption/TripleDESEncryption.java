@@ -2,6 +2,8 @@ package ar.edu.itba.encryption;
 
 import ar.edu.itba.config.EncryptionMode;
 
+import java.io.InputStream;
+
 public class TripleDESEncryption implements EncryptionAlgorithm {
     @Override
     public byte[] encrypt(byte[] data, String password) {
@@ -12,4 +14,19 @@ public class TripleDESEncryption implements EncryptionAlgorithm {
     public byte[] decrypt(byte[] data, String password) {
         return new byte[0];
     }
+
+    @Override
+    public InputStream encrypt(InputStream data, String password) {
+        return InputStream.nullInputStream();
+    }
+
+    @Override
+    public InputStream decrypt(InputStream data, String password) {
+        return InputStream.nullInputStream();
+    }
+
+    @Override
+    public long encryptedLength(long length) {
+        return 0;
+    }
 }
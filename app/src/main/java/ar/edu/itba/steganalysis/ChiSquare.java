@@ -0,0 +1,116 @@
+package ar.edu.itba.steganalysis;
+
+/**
+ * Chi-square test of how evenly the values of a histogram are spread inside groups of consecutive values.
+ * Embedding random data in the n lowest bits of a byte evens out every group of 2^n values that only differ in those
+ * bits, while natural images rarely have such groups even. This is the attack by Westfeld and Pfitzmann, generalized
+ * from pairs of values to groups of any power of two.
+ * <p>
+ * As in the original attack the statistic is half of Pearson's, which only compares the first value of each pair with
+ * the expected count. Groups as even as random data makes them then give p-values close to 1, instead of spread
+ * uniformly, while uneven groups still give p-values close to 0.
+ */
+final class ChiSquare {
+    /** Groups whose expected count per value is below this are left out, the test is unreliable for them */
+    private static final double MIN_EXPECTED = 5;
+    private static final int MAX_ITERATIONS = 1000;
+    private static final double EPSILON = 1e-12;
+    private static final double TINY = 1e-300;
+
+    private ChiSquare() {
+    }
+
+    /**
+     * @param histogram Count of every byte value, 256 entries.
+     * @param bits How many low bits the groups differ in. 1 compares pairs of values.
+     * @return p-value in [0, 1]. Close to 1 when the low bits look random, 0 when they do not or there is too little
+     * data.
+     */
+    static double evenness(long[] histogram, int bits) {
+        var groupSize = 1 << bits;
+        double statistic = 0;
+        var degreesOfFreedom = 0;
+        for (int group = 0; group < histogram.length; group += groupSize) {
+            long total = 0;
+            for (int v = group; v < group + groupSize; v++) {
+                total += histogram[v];
+            }
+            var expected = (double) total / groupSize;
+            if (expected < MIN_EXPECTED) {
+                continue;
+            }
+            for (int v = group; v < group + groupSize; v++) {
+                var difference = histogram[v] - expected;
+                statistic += difference * difference / expected;
+            }
+            degreesOfFreedom += groupSize - 1;
+        }
+        // One degree of freedom is lost to the total count
+        degreesOfFreedom--;
+        if (degreesOfFreedom <= 0) {
+            return 0;
+        }
+        return upperRegularizedGamma(degreesOfFreedom / 2.0, statistic / 2 / 2);
+    }
+
+    /** Q(a, x), which is also the survival function of the chi-square distribution with 2a degrees of freedom at 2x */
+    private static double upperRegularizedGamma(double a, double x) {
+        if (x <= 0) {
+            return 1;
+        }
+        if (x < a + 1) {
+            return Math.max(0, 1 - lowerSeries(a, x));
+        }
+        return continuedFraction(a, x);
+    }
+
+    private static double lowerSeries(double a, double x) {
+        var term = 1 / a;
+        var sum = term;
+        for (int n = 1; n < MAX_ITERATIONS && Math.abs(term) > Math.abs(sum) * EPSILON; n++) {
+            term *= x / (a + n);
+            sum += term;
+        }
+        return sum * Math.exp(-x + a * Math.log(x) - logGamma(a));
+    }
+
+    /** Modified Lentz evaluation of the continued fraction for Q(a, x) */
+    private static double continuedFraction(double a, double x) {
+        var b = x + 1 - a;
+        var c = 1 / TINY;
+        var d = 1 / b;
+        var result = d;
+        for (int i = 1; i < MAX_ITERATIONS; i++) {
+            var an = -i * (i - a);
+            b += 2;
+            d = an * d + b;
+            d = Math.abs(d) < TINY ? 1 / TINY : 1 / d;
+            c = b + an / c;
+            if (Math.abs(c) < TINY) {
+                c = TINY;
+            }
+            var delta = d * c;
+            result *= delta;
+            if (Math.abs(delta - 1) < EPSILON) {
+                break;
+            }
+        }
+        return Math.exp(-x + a * Math.log(x) - logGamma(a)) * result;
+    }
+
+    /** Lanczos approximation of ln(Γ(x)) for x > 0 */
+    private static double logGamma(double x) {
+        final double[] coefficients = {
+          76.18009172947146, -86.50532032941677, 24.01409824083091,
+          -1.231739572450155, 0.1208650973866179e-2, -0.5395239384953e-5
+        };
+        var y = x;
+        var tmp = x + 5.5;
+        tmp -= (x + 0.5) * Math.log(tmp);
+        var series = 1.000000000190015;
+        for (var coefficient : coefficients) {
+            series += coefficient / ++y;
+        }
+        return -tmp + Math.log(2.5066282746310005 * series / x);
+    }
+}
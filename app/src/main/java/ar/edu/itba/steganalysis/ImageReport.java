@@ -0,0 +1,32 @@
+package ar.edu.itba.steganalysis;
+
+import ar.edu.itba.config.SteganographyAlgorithmType;
+
+import java.nio.file.Path;
+
+/**
+ * What the analysis of one image found. Fractions are shares of the image, in embedding order, whose low bits look
+ * like random data to the chi-square attack.
+ * @param method The most likely method, null if no method left a trace.
+ * @param score Fraction of the image used by {@code method}, 0 if there is none. Images are ranked by it.
+ * @param lsb1 Fraction with even pairs of values in every channel.
+ * @param lsb4 Fraction with even groups of 16 values in every channel.
+ * @param lsbi Fraction with even pairs of values in the blue and green channels.
+ * @param rs Share of pixels with a modified LSB according to the RS analysis.
+ * @param onesRatio Share of LSBs set in the blue, green and red channels.
+ * @param patternFlipRatio Estimated share of blue and green LSBs flipped in each LSBI pattern group, 00 to 11, by the
+ * RS analysis of that group.
+ */
+public record ImageReport(
+  Path image,
+  long size,
+  SteganographyAlgorithmType method,
+  double score,
+  double lsb1,
+  double lsb4,
+  double lsbi,
+  double rs,
+  double[] onesRatio,
+  double[] patternFlipRatio
+) {
+}
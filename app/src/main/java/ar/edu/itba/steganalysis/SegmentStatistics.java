@@ -0,0 +1,192 @@
+package ar.edu.itba.steganalysis;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+/**
+ * Statistics of the least significant bits of a range of rows of a 24 bit image body. Every worker fills its own
+ * instance, and instances are merged with {@link #add} once the workers are done.
+ */
+final class SegmentStatistics {
+    static final int CHANNELS = 3;
+    static final int BLUE = 0;
+    static final int GREEN = 1;
+    static final int RED = 2;
+    /** LSBI patterns, bits 1 and 2 of a byte */
+    static final int PATTERNS = 4;
+
+    /** Counters of the RS analysis: regular and singular groups for each flipping, on the groups as they are and with their LSBs flipped */
+    static final int REGULAR = 0;
+    static final int SINGULAR = 1;
+    static final int REGULAR_NEGATIVE = 2;
+    static final int SINGULAR_NEGATIVE = 3;
+    static final int FLIPPED = 4;
+    private static final int RS_COUNTERS = 8;
+    /** RS groups are this many consecutive pixels of a channel, flipped with the mask 0110 */
+    private static final int GROUP_SIZE = 4;
+    /**
+     * Regular and singular groups closer than this share of all groups are taken as balanced, which happens when every
+     * LSB was replaced. The estimate is numerically unstable there. The margin grows for small counts, such as those
+     * of a single LSBI pattern.
+     */
+    private static final double BALANCED = 0.01;
+
+    /** Count of every value of every channel */
+    final long[][] histograms = new long[CHANNELS][256];
+    final long[] rs = new long[RS_COUNTERS];
+    long groups;
+    /**
+     * RS counters of the blue and green groups whose two flipped pixels share an LSBI pattern, for each pattern.
+     * Flipping an LSB keeps the pattern, so these measure the bytes LSBI treats as one group.
+     */
+    final long[][] patternRs = new long[PATTERNS][RS_COUNTERS];
+    final long[] patternGroups = new long[PATTERNS];
+
+    static int pattern(int value) {
+        return value >> 1 & 0b11;
+    }
+
+    /**
+     * Adds the rows {@code [fromRow, toRow)} of the body, in storage order, skipping the row padding.
+     */
+    void scan(MemorySegment body, long rowSize, int width, int fromRow, int toRow) {
+        var row = new byte[width * CHANNELS];
+        for (int r = fromRow; r < toRow; r++) {
+            MemorySegment.copy(body, ValueLayout.JAVA_BYTE, r * rowSize, row, 0, row.length);
+            for (int i = 0; i < row.length; i += CHANNELS) {
+                histograms[BLUE][row[i] & 0xFF]++;
+                histograms[GREEN][row[i + 1] & 0xFF]++;
+                histograms[RED][row[i + 2] & 0xFF]++;
+            }
+            for (int channel = 0; channel < CHANNELS; channel++) {
+                for (int x = 0; x + GROUP_SIZE <= width; x += GROUP_SIZE) {
+                    var i = x * CHANNELS + channel;
+                    long[] patternCounters = null;
+                    var pattern = pattern(row[i + 3]);
+                    if (channel != RED && pattern == pattern(row[i + 6])) {
+                        patternCounters = patternRs[pattern];
+                        patternGroups[pattern]++;
+                    }
+                    classify(patternCounters, row[i] & 0xFF, row[i + 3] & 0xFF, row[i + 6] & 0xFF, row[i + 9] & 0xFF);
+                }
+            }
+        }
+    }
+
+    private static int smoothness(int a, int b, int c, int d) {
+        return Math.abs(b - a) + Math.abs(c - b) + Math.abs(d - c);
+    }
+
+    /** Flips the LSB, swapping 2k and 2k+1 */
+    private static int flip(int value) {
+        return value ^ 1;
+    }
+
+    /** Shifted flipping, swapping 2k-1 and 2k */
+    private static int flipNegative(int value) {
+        return ((value + 1) ^ 1) - 1;
+    }
+
+    /**
+     * @param patternCounters Counters of the pattern the group also counts for, or null.
+     */
+    private void classify(long[] patternCounters, int a, int b, int c, int d) {
+        groups++;
+        count(patternCounters, 0, a, b, c, d);
+        count(patternCounters, FLIPPED, flip(a), flip(b), flip(c), flip(d));
+    }
+
+    private void count(long[] patternCounters, int base, int a, int b, int c, int d) {
+        var original = smoothness(a, b, c, d);
+        var positive = smoothness(a, flip(b), flip(c), d);
+        var negative = smoothness(a, flipNegative(b), flipNegative(c), d);
+        if (positive > original) {
+            increment(patternCounters, base + REGULAR);
+        } else if (positive < original) {
+            increment(patternCounters, base + SINGULAR);
+        }
+        if (negative > original) {
+            increment(patternCounters, base + REGULAR_NEGATIVE);
+        } else if (negative < original) {
+            increment(patternCounters, base + SINGULAR_NEGATIVE);
+        }
+    }
+
+    private void increment(long[] patternCounters, int counter) {
+        rs[counter]++;
+        if (patternCounters != null) {
+            patternCounters[counter]++;
+        }
+    }
+
+    void add(SegmentStatistics other) {
+        for (int channel = 0; channel < CHANNELS; channel++) {
+            for (int v = 0; v < 256; v++) {
+                histograms[channel][v] += other.histograms[channel][v];
+            }
+        }
+        for (int i = 0; i < RS_COUNTERS; i++) {
+            rs[i] += other.rs[i];
+        }
+        groups += other.groups;
+        for (int p = 0; p < PATTERNS; p++) {
+            for (int i = 0; i < RS_COUNTERS; i++) {
+                patternRs[p][i] += other.patternRs[p][i];
+            }
+            patternGroups[p] += other.patternGroups[p];
+        }
+    }
+
+    /**
+     * Estimates the share of pixels whose LSB carries data with the RS analysis of Fridrich, Goljan and Du.
+     * @return The estimate in [0, 1].
+     */
+    double rsEstimate() {
+        return rsEstimate(rs, groups);
+    }
+
+    /**
+     * Estimates the share of blue and green bytes of an LSBI pattern whose LSB was flipped. Data that replaces LSBs
+     * leaves half of them as they were, so it is half the RS estimate of the pattern. LSBI inverts the data of the
+     * patterns where that flips fewer bytes, which keeps every ratio at or below 0.5.
+     * @return The estimate in [0, 0.5].
+     */
+    double flipRatio(int pattern) {
+        return rsEstimate(patternRs[pattern], patternGroups[pattern]) / 2;
+    }
+
+    private static double rsEstimate(long[] rs, long groups) {
+        if (groups == 0) {
+            return 0;
+        }
+        double n = groups;
+        var d0 = (rs[REGULAR] - rs[SINGULAR]) / n;
+        var d1 = (rs[FLIPPED + REGULAR] - rs[FLIPPED + SINGULAR]) / n;
+        var negativeD0 = (rs[REGULAR_NEGATIVE] - rs[SINGULAR_NEGATIVE]) / n;
+        var negativeD1 = (rs[FLIPPED + REGULAR_NEGATIVE] - rs[FLIPPED + SINGULAR_NEGATIVE]) / n;
+        // Few groups leave more sampling noise in the differences
+        var balanced = Math.max(BALANCED, 2 / Math.sqrt(n));
+        if (Math.abs(d0) < balanced && Math.abs(d1) < balanced) {
+            return 1;
+        }
+
+        var a = 2 * (d1 + d0);
+        var b = negativeD0 - negativeD1 - d1 - 3 * d0;
+        var c = d0 - negativeD0;
+        double x;
+        if (a == 0) {
+            if (b == 0) {
+                return 0;
+            }
+            x = -c / b;
+        } else {
+            var discriminant = b * b - 4 * a * c;
+            var root = Math.sqrt(Math.max(discriminant, 0));
+            var x1 = (-b + root) / (2 * a);
+            var x2 = (-b - root) / (2 * a);
+            x = Math.abs(x1) < Math.abs(x2) ? x1 : x2;
+        }
+        var estimate = x / (x - 0.5);
+        return Double.isFinite(estimate) ? Math.clamp(estimate, 0, 1) : 0;
+    }
+}
@@ -0,0 +1,213 @@
+package ar.edu.itba.steganalysis;
+
+import ar.edu.itba.Image;
+import ar.edu.itba.config.SteganographyAlgorithmType;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static ar.edu.itba.steganalysis.SegmentStatistics.BLUE;
+import static ar.edu.itba.steganalysis.SegmentStatistics.CHANNELS;
+import static ar.edu.itba.steganalysis.SegmentStatistics.GREEN;
+import static ar.edu.itba.steganalysis.SegmentStatistics.PATTERNS;
+import static ar.edu.itba.steganalysis.SegmentStatistics.RED;
+
+/**
+ * Looks for LSB steganography in 24 bit BMP images, without knowing the covers.
+ * <p>
+ * Every image is split in {@link #SEGMENTS} bands of rows that are scanned in parallel, each into its own
+ * {@link SegmentStatistics}. The chi-square attack is then run on growing prefixes of the bands in embedding order,
+ * since the codecs fill images from the start, which estimates how much of the image was used. The bands are merged
+ * for the RS analysis and the histograms of the whole image. Directories are scanned one image per worker.
+ */
+public class Steganalyzer {
+    static final int SEGMENTS = 16;
+    /** Prefixes whose chi-square p-value is above this are taken as carrying data */
+    private static final double EVEN_THRESHOLD = 0.5;
+    /**
+     * Noisy covers can have even pairs of values on their own, so the chi-square attack only counts for the LSB
+     * replacing methods when the RS analysis also sees at least this share of modified pixels
+     */
+    private static final double RS_THRESHOLD = 0.05;
+
+    private static final Comparator<ImageReport> RANKING = Comparator
+      .comparingDouble(ImageReport::score)
+      .thenComparingDouble(ImageReport::rs)
+      .reversed();
+
+    /**
+     * Analyzes a single image.
+     * @throws IllegalArgumentException If the image is not a 24 bit bitmap.
+     */
+    public ImageReport analyze(File file) throws IOException {
+        var image = Image.open(file);
+        if (image.getBitsPerPixel() != 24) {
+            throw new IllegalArgumentException("Only 24 bit images can be analyzed, " + file.getName() + " has "
+              + image.getBitsPerPixel() + " bits per pixel");
+        }
+        var body = image.getBodySegment();
+        var height = image.getHeight();
+        var segments = IntStream.range(0, SEGMENTS)
+          .parallel()
+          .mapToObj(s -> {
+              var statistics = new SegmentStatistics();
+              statistics.scan(body, image.getRowSize(), image.getWidth(), s * height / SEGMENTS, (s + 1) * height / SEGMENTS);
+              return statistics;
+          })
+          .toList();
+
+        // LSBN goes through the body in storage order, LSBI goes from the bottom row up
+        var lsbiOrder = image.isTopDown() ? segments.reversed() : segments;
+        var lsb1 = embeddedFraction(segments, 1, BLUE, GREEN, RED);
+        var lsb4 = embeddedFraction(segments, 4, BLUE, GREEN, RED);
+        var lsbi = embeddedFraction(lsbiOrder, 1, BLUE, GREEN);
+        var red = embeddedFraction(lsbiOrder, 1, RED);
+
+        var total = new SegmentStatistics();
+        segments.forEach(total::add);
+        var rs = total.rsEstimate();
+
+        // Random data in 4 bits also evens out the pairs, and LSBI leaves the red channel alone
+        SteganographyAlgorithmType method = null;
+        var score = 0.0;
+        if (lsb4 > 0) {
+            method = SteganographyAlgorithmType.LSB4;
+            score = lsb4;
+        } else if (rs >= RS_THRESHOLD && lsbi > red) {
+            method = SteganographyAlgorithmType.LSBI;
+            score = lsbi;
+        } else if (rs >= RS_THRESHOLD && lsb1 > 0) {
+            method = SteganographyAlgorithmType.LSB1;
+            score = lsb1;
+        }
+
+        return new ImageReport(
+          file.toPath(),
+          file.length(),
+          method,
+          score,
+          lsb1,
+          lsb4,
+          lsbi,
+          rs,
+          onesRatio(total),
+          patternFlipRatio(total)
+        );
+    }
+
+    /**
+     * @return The longest prefix of the segments, as a fraction of all of them, whose values look evened out in the
+     * given low bits of the given channels.
+     */
+    private static double embeddedFraction(List<SegmentStatistics> segments, int bits, int... channels) {
+        var cumulative = new long[256];
+        var embedded = 0;
+        for (int s = 0; s < segments.size(); s++) {
+            for (var channel : channels) {
+                var histogram = segments.get(s).histograms[channel];
+                for (int v = 0; v < 256; v++) {
+                    cumulative[v] += histogram[v];
+                }
+            }
+            if (ChiSquare.evenness(cumulative, bits) > EVEN_THRESHOLD) {
+                embedded = s + 1;
+            }
+        }
+        return (double) embedded / segments.size();
+    }
+
+    private static double[] onesRatio(SegmentStatistics statistics) {
+        var ratios = new double[CHANNELS];
+        for (int channel = 0; channel < CHANNELS; channel++) {
+            long ones = 0;
+            long total = 0;
+            for (int v = 0; v < 256; v++) {
+                total += statistics.histograms[channel][v];
+                ones += (v & 1) * statistics.histograms[channel][v];
+            }
+            ratios[channel] = total == 0 ? 0 : (double) ones / total;
+        }
+        return ratios;
+    }
+
+    /** LSBI decides whether to invert the data of a byte by bits 1 and 2, so each pattern is looked at separately */
+    private static double[] patternFlipRatio(SegmentStatistics statistics) {
+        var ratios = new double[PATTERNS];
+        for (int p = 0; p < PATTERNS; p++) {
+            ratios[p] = statistics.flipRatio(p);
+        }
+        return ratios;
+    }
+
+    /**
+     * Analyzes every bmp file in a directory and its subdirectories. Files that cannot be analyzed are reported on
+     * the standard error and left out.
+     * @param threads Number of images analyzed at a time, 0 for a virtual thread per image.
+     * @return The reports, most suspicious first.
+     */
+    public List<ImageReport> scan(File directory, int threads) throws IOException, InterruptedException {
+        List<Path> images;
+        try (Stream<Path> files = Files.walk(directory.toPath())) {
+            images = files
+              .filter(Files::isRegularFile)
+              .filter(f -> f.getFileName().toString().toLowerCase().endsWith(".bmp"))
+              .sorted()
+              .toList();
+        }
+
+        var reports = new ArrayList<ImageReport>();
+        try (ExecutorService executor = threads == 0
+          ? Executors.newVirtualThreadPerTaskExecutor()
+          : Executors.newFixedThreadPool(threads)) {
+            var futures = new ArrayList<Future<ImageReport>>();
+            for (var image : images) {
+                futures.add(executor.submit(() -> analyze(image.toFile())));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    reports.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    System.err.println("Skipping " + images.get(i) + ": " + e.getCause().getMessage());
+                }
+            }
+        }
+        reports.sort(RANKING);
+        return reports;
+    }
+
+    /**
+     * Prints one line per report, in the order given.
+     */
+    public static void print(List<ImageReport> reports, PrintStream out) {
+        out.printf("%4s  %5s  %-6s  %4s  %4s  %4s  %4s  %-14s  %-19s  %s%n",
+          "Rank", "Score", "Method", "LSB1", "LSB4", "LSBI", "RS", "Ones B/G/R", "LSBI flips", "Image");
+        var rank = 1;
+        for (var report : reports) {
+            var ones = report.onesRatio();
+            var patterns = report.patternFlipRatio();
+            out.printf("%4d  %5.2f  %-6s  %4.2f  %4.2f  %4.2f  %4.2f  %.2f/%.2f/%.2f  %.2f/%.2f/%.2f/%.2f  %s%n",
+              rank++,
+              report.score(),
+              report.method() == null ? "-" : report.method(),
+              report.lsb1(),
+              report.lsb4(),
+              report.lsbi(),
+              report.rs(),
+              ones[BLUE], ones[GREEN], ones[RED],
+              patterns[0], patterns[1], patterns[2], patterns[3],
+              report.image());
+        }
+    }
+}
@@ -1,22 +1,17 @@
 package ar.edu.itba.steganography;
 
 import ar.edu.itba.Image;
+import ar.edu.itba.ImageHeader;
 import ar.edu.itba.steganography.exceptions.SecretTooLargeException;
-import ar.edu.itba.utils.ImageUtils;
 
-import java.awt.*;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOError;
-import java.io.IOException;
-import java.io.SequenceInputStream;
-import java.util.*;
-import java.util.List;
-import java.util.stream.IntStream;
-import java.util.stream.Stream;
+import com.google.common.io.ByteSource;
 
-import javax.imageio.ImageIO;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.Objects;
 
 public class LSBICodec implements StegoCodec {
     private static final int PATTERN_INFO_BIT_SIZE = 4;
@@ -24,257 +19,333 @@ public class LSBICodec implements StegoCodec {
     private static final int PIXEL_MASK = 0xFE;
     private static final int DATA_MASK = 0x01;
     private static final int PATTERN_MASK = 0b11;
+    /**
+     * The blue and green channels of every pixel are numbered as consecutive slots. The pattern information
+     * takes the three channels of the first pixel and the blue channel of the second one, so the data starts
+     * on the green channel of the second pixel.
+     */
+    private static final int DATA_START_SLOT = 3;
+    private static final int BLUE_CHANNEL = 0;
+    private static final int GREEN_CHANNEL = 1;
+    private static final int RED_CHANNEL = 2;
+    private static final int BYTES_PER_PIXEL = 3;
+    /** How many secret bytes are read from the source at a time when embedding from a stream */
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    /** Ranges of secret bytes bigger than this are split across the fork-join pool */
+    private static final int PARALLEL_THRESHOLD = 16 * 1024;
+
+    private static final int PATTERNS = 4;
+    /**
+     * Whether the data bit stored in an image byte is inverted, indexed by the swapped patterns, as the bit set
+     * {@link #readSwappedPatterns} returns, and by the image byte. Embedding and extracting a bit is then a lookup and
+     * an xor.
+     */
+    private static final byte[][] INVERSIONS = new byte[1 << PATTERNS][256];
+
+    static {
+        for (int swappedPatterns = 0; swappedPatterns < INVERSIONS.length; swappedPatterns++) {
+            for (int b = 0; b < 256; b++) {
+                INVERSIONS[swappedPatterns][b] = (byte) (swappedPatterns >>> getPattern(b) & DATA_MASK);
+            }
+        }
+    }
 
-    private static class PatternCount {
-        private int swapped;
-        private int total;
+    /** Histogram of how many image bytes of every pattern hold a data bit, and how many of those would change */
+    private static class PatternCounts {
+        private final long[] swapped = new long[PATTERNS];
+        private final long[] total = new long[PATTERNS];
 
-        public PatternCount(int swapped, int total) {
-            this.swapped = swapped;
-            this.total = total;
+        public void count(int imageByte, int bit) {
+            var pattern = getPattern(imageByte);
+            total[pattern]++;
+            swapped[pattern] += (imageByte ^ bit) & DATA_MASK;
         }
 
-        public PatternCount() {
-            this.swapped = 0;
-            this.total = 0;
+        /** Adds the counts of another histogram, which may be merged concurrently from several workers */
+        public synchronized void add(PatternCounts other) {
+            for (int pattern = 0; pattern < PATTERNS; pattern++) {
+                this.swapped[pattern] += other.swapped[pattern];
+                this.total[pattern] += other.total[pattern];
+            }
         }
 
-        public void count(boolean swapped) {
-            this.total++;
-            if (swapped) {
-                this.swapped++;
+        /** @return The patterns that change more bits than they keep, as a bit set indexed by pattern */
+        public int swappedPatterns() {
+            var swappedPatterns = 0;
+            for (int pattern = 0; pattern < PATTERNS; pattern++) {
+                if (swapped[pattern] > total[pattern] / 2) {
+                    swappedPatterns |= 1 << pattern;
+                }
             }
+            return swappedPatterns;
         }
+    }
 
-        public int swapped() {
-            return this.swapped;
+    /**
+     * Walks the blue and green channels of the image body in embedding order: pixels go left to right starting
+     * from the bottom row of the image, skipping the red channel and the padding at the end of every row.
+     */
+    private static class SlotCursor {
+        private final int width;
+        private final int height;
+        private final long rowSize;
+        private final boolean topDown;
+        private int row;
+        private int column;
+        private int channel;
+        private long rowStart;
+
+        public SlotCursor(Image image, long slot) {
+            this.width = image.getWidth();
+            this.height = image.getHeight();
+            this.rowSize = image.getRowSize();
+            this.topDown = image.isTopDown();
+            var pixel = slot / BITS_PER_PIXEL;
+            this.row = (int) (pixel / width);
+            this.column = (int) (pixel % width);
+            this.channel = (int) (slot % BITS_PER_PIXEL);
+            this.rowStart = rowStart(row);
         }
 
-        public int total() {
-            return this.total;
+        private long rowStart(int row) {
+            // Bottom-up bitmaps store the bottom row first
+            return (topDown ? height - 1 - row : row) * rowSize;
         }
-    }
 
-    private int swapBit(int bit) {
-        assert bit == 0 || bit == 1;
-        return bit == 0 ? 1 : 0;
+        /** Position in the body of the byte for the current slot */
+        public long position() {
+            return rowStart + column * BYTES_PER_PIXEL + channel;
+        }
+
+        public void next() {
+            if (++channel < BITS_PER_PIXEL) {
+                return;
+            }
+            channel = BLUE_CHANNEL;
+            if (++column == width) {
+                column = 0;
+                rowStart = rowStart(++row);
+            }
+        }
     }
 
-    private int getPattern(int b) {
+    private static int getPattern(int b) {
         return b >>> 1 & PATTERN_MASK;
     }
 
-    @Override
-    public Image encode(byte[] secret, Image coverImage2) throws SecretTooLargeException {
-        var coverImage = coverImage2.toBufferedImage();
-
-        var imageHeight = coverImage.getHeight();
-        var imageWidth = coverImage.getWidth();
-        var stegoImage = ImageUtils.deepCopy(coverImage);
-        var secretBits = BitSet.valueOf(secret);
-        final Map<Integer, PatternCount> patternMap = Map.of(
-          0b11, new PatternCount(),
-          0b10, new PatternCount(),
-          0b01, new PatternCount(),
-          0b00, new PatternCount());
-        int c = 0, x, y;
-        int[] colors = new int[BITS_PER_PIXEL]; // Use only Blue(0) and Green(1)
-
-        /*
-         * First 4 bytes of the image (4 bits of data) will be used to store data about
-         * the swapped patterns. With four bits, each one will represent a
-         * pattern and will be set to 1 if the bytes with that pattern must
-         * be swapped and 0 if the bytes must remain the same.
-         * The order for the patterns is as follows:
-         * 00 01 10 11
-         *
-         * So for example, if the first four bits (each stored in a byte of the image)
-         * look like '0101', then for all subsequent bits if the image byte contains
-         * the '11' or '01' patterns then the secret bits must be swapped in order to
-         * recover the image correctly
-         */
-
-        // Reserve space for the pattern information (4 bytes)
-        x = 1;
-        y = imageHeight - 1;
-        c = 1;
-
-        var p = new Color(coverImage.getRGB(x++, y));
-
-        for (int i = 0; i < secret.length * 8; i++) {
-            int bit = secretBits.get(7 - i % 8 + ((int) i / 8) * 8) ? 1 : 0;
-            if (c == 0) {
-                if (y < 0) {
-                    throw new SecretTooLargeException(
-                      coverImage.getWidth() * coverImage.getHeight() * 3L / 8,
-                      secret.length);
-                }
-                p = new Color(coverImage.getRGB(x++, y));
-                if (x == imageWidth) {
-                    x = 0;
-                    y--;
-                }
-            }
-            var imageByte = switch (c) {
-                case 0 -> p.getBlue();
-                case 1 -> p.getGreen();
-                default -> throw new IllegalStateException("Unexpected value: " + c);
-            };
-            patternMap.get(getPattern(imageByte))
-              .count((imageByte & 1) != bit);
-            c = (c + 1) % BITS_PER_PIXEL;
-        }
+    private static long pixelPosition(Image image, int pixel) {
+        return new SlotCursor(image, (long) pixel * BITS_PER_PIXEL).position();
+    }
 
-        var swappedPatterns = new ArrayList<>(4);
-        for (var e : patternMap.entrySet()) {
-            var patternCount = e.getValue();
-            if (patternCount.swapped() > patternCount.total() / 2) {
-                swappedPatterns.add(e.getKey());
-            }
+    private static void checkFormat(ImageHeader image) {
+        if (image.getBitsPerPixel() != 24) {
+            throw new IllegalArgumentException(
+              "LSBI only supports 24 bit images, the image has " + image.getBitsPerPixel() + " bits per pixel");
         }
+    }
 
-        x = 0;
-        y = imageHeight - 1;
-        c = 0;
-
-        // Store 00, 01 and 10
-        stegoImage.setRGB(x++, y, new Color(
-          (p.getRed() & PIXEL_MASK) | (swappedPatterns.contains(0b10) ? 1 : 0),
-          (p.getGreen() & PIXEL_MASK) | (swappedPatterns.contains(0b01) ? 1 : 0),
-          (p.getBlue() & PIXEL_MASK) | (swappedPatterns.contains(0b00) ? 1 : 0)
-        ).getRGB());
-        if (x == imageWidth) {
-            y--;
-            x = 0;
-        }
-        // Store 11
-        // The next channel to write is the Green channel for the current byte
-        colors[c] = swappedPatterns.contains(0b11) ? 1 : 0;
-        // compensate for the bit swap that may occur when writing this bit
-        if(swappedPatterns.contains(getPattern((new Color(stegoImage.getRGB(x, y))).getBlue()))) {
-            colors[c] = swapBit(colors[c]);
+    /**
+     * Counts, for every pattern, how many of the image bytes that will hold the given secret bytes
+     * would have their least significant bit changed.
+     */
+    private void count(MemorySegment body, SlotCursor cursor, byte[] secret, int offset, int length, PatternCounts patternCounts) {
+        for (int k = offset; k < offset + length; k++) {
+            for (int j = 7; j >= 0; j--) {
+                int bit = secret[k] >>> j & DATA_MASK;
+                patternCounts.count(body.get(ValueLayout.JAVA_BYTE, cursor.position()) & 0xFF, bit);
+                cursor.next();
+            }
         }
-        c++;
+    }
 
-        for (int i = 0; i < secret.length * 8; i++) {
-            boolean sBit = secretBits.get(7 - i % 8 + ((int) i / 8) * 8);
+    /**
+     * Counts the patterns for a range of the secret that starts at the given data offset. Every worker counts its own
+     * part of the range in a private histogram, which is then merged into the shared one.
+     */
+    private void countParallel(Image image, long dataOffset, byte[] secret, int offset, int length, PatternCounts patternCounts) {
+        var body = image.getBodySegment();
+        ParallelRanges.run(offset, offset + length, PARALLEL_THRESHOLD, (from, to) -> {
+            var localCounts = new PatternCounts();
+            count(body, new SlotCursor(image, DATA_START_SLOT + (dataOffset + from - offset) * 8), secret, from, to - from, localCounts);
+            patternCounts.add(localCounts);
+        });
+    }
 
-            colors[c++] = sBit ? 1 : 0;
+    /**
+     * Writes a range of the secret that starts at the given data offset. Every output bit only depends on the swapped
+     * patterns and its own position, so disjoint ranges are written concurrently.
+     */
+    private void embedParallel(Image image, long dataOffset, byte[] secret, int offset, int length, int swappedPatterns) {
+        var body = image.getBodySegment();
+        ParallelRanges.run(offset, offset + length, PARALLEL_THRESHOLD,
+          (from, to) -> embed(body, new SlotCursor(image, DATA_START_SLOT + (dataOffset + from - offset) * 8), secret, from, to - from, swappedPatterns));
+    }
 
-            if (c < 2) {
-                continue;
+    /**
+     * Writes the secret bytes into the image, inverting the bits stored in bytes with a swapped pattern.
+     * Writing only changes the least significant bit, so the pattern of every byte stays the same.
+     */
+    private void embed(MemorySegment body, SlotCursor cursor, byte[] secret, int offset, int length, int swappedPatterns) {
+        var inversions = INVERSIONS[swappedPatterns];
+        for (int k = offset; k < offset + length; k++) {
+            for (int j = 7; j >= 0; j--) {
+                int bit = secret[k] >>> j & DATA_MASK;
+                long position = cursor.position();
+                int imageByte = body.get(ValueLayout.JAVA_BYTE, position) & 0xFF;
+                body.set(ValueLayout.JAVA_BYTE, position, (byte) ((imageByte & PIXEL_MASK) | (bit ^ inversions[imageByte])));
+                cursor.next();
             }
-            c = 0;
-
-            var pixel = new Color(coverImage.getRGB(x, y));
-            int bluePattern = getPattern(pixel.getBlue());
-            int greenPattern = getPattern(pixel.getGreen());
-
-            var r = pixel.getRed();
-            var b = (pixel.getBlue() & PIXEL_MASK) |
-                      (swappedPatterns.contains(bluePattern) ? swapBit(colors[0]) : colors[0]);
-            var g = (pixel.getGreen() & PIXEL_MASK) |
-                      (swappedPatterns.contains(greenPattern) ? swapBit(colors[1]) : colors[1]);
-
-            stegoImage.setRGB(x, y, new Color(r, g, b).getRGB());
-            x++;
-            if (x == imageWidth) {
-                y--;
-                x = 0;
-            }
-        }
-        if (c == 1) {
-            var pixel = new Color(coverImage.getRGB(x, y));
-            var b = (pixel.getBlue() & PIXEL_MASK) |
-                      (swappedPatterns.contains(getPattern(pixel.getBlue())) ? swapBit(colors[0]) : colors[0]);
-            stegoImage.setRGB(x, y, new Color(pixel.getRed(), pixel.getGreen(), b).getRGB());
         }
+    }
+
+    /*
+     * First 4 bytes of the image (4 bits of data) will be used to store data about
+     * the swapped patterns. With four bits, each one will represent a
+     * pattern and will be set to 1 if the bytes with that pattern must
+     * be swapped and 0 if the bytes must remain the same.
+     * The patterns 00, 01 and 10 go in the blue, green and red channels of the first
+     * pixel and 11 goes in the blue channel of the second one.
+     *
+     * So for example, if the four bits look like '0101', then for all subsequent bits
+     * if the image byte contains the '11' or '01' patterns then the secret bits must be
+     * swapped in order to recover the image correctly
+     */
+    private void writeSwappedPatterns(Image image, int swappedPatterns) {
+        var body = image.getBodySegment();
+        var firstPixel = pixelPosition(image, 0);
+        var secondPixel = pixelPosition(image, 1);
+        writeFlag(body, firstPixel + BLUE_CHANNEL, (swappedPatterns >>> 0b00 & 1) == 1);
+        writeFlag(body, firstPixel + GREEN_CHANNEL, (swappedPatterns >>> 0b01 & 1) == 1);
+        writeFlag(body, firstPixel + RED_CHANNEL, (swappedPatterns >>> 0b10 & 1) == 1);
+        writeFlag(body, secondPixel + BLUE_CHANNEL, (swappedPatterns >>> 0b11 & 1) == 1);
+    }
 
-        return Image.fromBufferedImage(stegoImage);
+    private static void writeFlag(MemorySegment body, long position, boolean flag) {
+        body.set(ValueLayout.JAVA_BYTE, position, (byte) ((body.get(ValueLayout.JAVA_BYTE, position) & PIXEL_MASK) | (flag ? 1 : 0)));
+    }
+
+    /** @return The swapped patterns as a bit set indexed by pattern */
+    private int readSwappedPatterns(Image image) {
+        checkFormat(image);
+        var body = image.getBodySegment();
+        var firstPixel = pixelPosition(image, 0);
+        var secondPixel = pixelPosition(image, 1);
+        return (body.get(ValueLayout.JAVA_BYTE, firstPixel + BLUE_CHANNEL) & DATA_MASK) << 0b00
+          | (body.get(ValueLayout.JAVA_BYTE, firstPixel + GREEN_CHANNEL) & DATA_MASK) << 0b01
+          | (body.get(ValueLayout.JAVA_BYTE, firstPixel + RED_CHANNEL) & DATA_MASK) << 0b10
+          | (body.get(ValueLayout.JAVA_BYTE, secondPixel + BLUE_CHANNEL) & DATA_MASK) << 0b11;
+    }
+
+    private void checkCapacity(Image coverImage, long secretLength) throws SecretTooLargeException {
+        var capacity = capacity(coverImage);
+        if (secretLength > capacity) {
+            throw new SecretTooLargeException(Math.max(capacity, 0), secretLength);
+        }
     }
 
     @Override
-    public byte[] decode(Image data) {
-        var stegoImage = data.toBufferedImage();
-        var secret = new ArrayList<Byte>(256);
-        int[] values = new int[8];
-        short v = 0;
-
-        var imagePixels = stegoImage.getRGB(
-          0,
-          0,
-          stegoImage.getWidth(),
-          stegoImage.getHeight(),
-          null,
-          0,
-          stegoImage.getWidth()
-        );
+    public Image encode(byte[] secret, Image coverImage) throws SecretTooLargeException {
+        checkCapacity(coverImage, secret.length);
 
-        var swappedPatterns = new HashSet<>(4);
+        var patternCounts = new PatternCounts();
+        countParallel(coverImage, 0, secret, 0, secret.length, patternCounts);
 
-        int x = 0;
-        int y = stegoImage.getHeight() - 1;
+        var swappedPatterns = patternCounts.swappedPatterns();
+        writeSwappedPatterns(coverImage, swappedPatterns);
+        embedParallel(coverImage, 0, secret, 0, secret.length, swappedPatterns);
 
-        var firstPixel = new Color(imagePixels[x++ + y * stegoImage.getWidth()]);
+        return coverImage;
+    }
 
-        // Read first three patterns
-        int bIndex = 0;
-        for (int b : List.of(firstPixel.getBlue(), firstPixel.getGreen(), firstPixel.getRed())) {
-            if ((b & DATA_MASK) == 1) {
-                swappedPatterns.add(switch (bIndex) {
-                    case 0 -> 0b00;
-                    case 1 -> 0b01;
-                    case 2 -> 0b10;
-                    default -> throw new IllegalStateException("Unexpected value for iterator: " + bIndex);
-                });
-            }
-            bIndex++;
+    /**
+     * Reads the next chunk of a secret, never past its length. The capacity check and the message header were made for
+     * that length, so a secret that ends early is an error.
+     */
+    private static int readChunk(InputStream stream, byte[] chunk, long offset, long length) throws IOException {
+        var read = stream.readNBytes(chunk, 0, (int) Math.min(chunk.length, length - offset));
+        if (read == 0) {
+            throw new EOFException("The secret ended after " + offset + " of " + length + " bytes");
         }
-        // Read the last pattern
-        int secondPixelBlueChannel = (new Color(imagePixels[x + y * stegoImage.getWidth()])).getBlue();
-        if ((secondPixelBlueChannel & DATA_MASK) == 1) {
-            swappedPatterns.add(0b11);
-        }
-        boolean startOffset = true; // Since we read the first channel (blue), we have to start reading the second
-        // one in the loop (green)
+        return read;
+    }
 
-        for(; y >= 0; y--) {
-            if(!startOffset) {
-                x = 0;
+    @Override
+    public Image encode(ByteSource secret, Image coverImage) throws SecretTooLargeException, IOException {
+        var length = secret.size();
+        checkCapacity(coverImage, length);
+        var chunk = new byte[(int) Math.min(CHUNK_SIZE, length)];
+
+        // The swapped patterns depend on the whole secret, so it is read once to count them and once to embed it
+        var patternCounts = new PatternCounts();
+        long dataOffset = 0;
+        try (var stream = secret.openStream()) {
+            while (dataOffset < length) {
+                var read = readChunk(stream, chunk, dataOffset, length);
+                countParallel(coverImage, dataOffset, chunk, 0, read, patternCounts);
+                dataOffset += read;
             }
-            for (; x < stegoImage.getWidth(); x++) {
-                int index = x + y * stegoImage.getWidth();
-                var pixel = new Color(imagePixels[index]);
-                int c = 0;
-                if (startOffset) {
-                    c = 1;
-                    startOffset = false;
-                }
-                for (; c < 2; c++) {
-                    var b = switch (c) {
-                        case 0 -> pixel.getBlue();
-                        case 1 -> pixel.getGreen();
-                        default -> throw new IllegalStateException(
-                          "Unexpected value: " + c);
-                    };
-
-                    values[v++] = swappedPatterns.contains(getPattern(b)) ? swapBit(b & DATA_MASK) : b & DATA_MASK;
-                    if (v == 8) {
-                        byte s = 0;
-                        for (int j = 0; j < 8; j++) {
-                            s |= (byte) (values[j] << (7 - j));
-                        }
-                        secret.add(s);
-                        v = 0;
-                    }
-                }
+        }
+
+        var swappedPatterns = patternCounts.swappedPatterns();
+        writeSwappedPatterns(coverImage, swappedPatterns);
+        dataOffset = 0;
+        try (var stream = secret.openStream()) {
+            while (dataOffset < length) {
+                var read = readChunk(stream, chunk, dataOffset, length);
+                embedParallel(coverImage, dataOffset, chunk, 0, read, swappedPatterns);
+                dataOffset += read;
             }
         }
 
-        var result = new byte[secret.size()];
-        for (int i = 0; i < secret.size(); i++) {
-            result[i] = secret.get(i);
+        return coverImage;
+    }
+
+    @Override
+    public long capacity(ImageHeader image) {
+        checkFormat(image);
+        return ((long) image.getWidth() * image.getHeight() * BITS_PER_PIXEL - DATA_START_SLOT) / 8;
+    }
+
+    private void decode(Image stegoImage, int swappedPatterns, long offset, byte[] secret, int secretOffset, int length) {
+        var body = stegoImage.getBodySegment();
+        var cursor = new SlotCursor(stegoImage, DATA_START_SLOT + offset * 8);
+        var inversions = INVERSIONS[swappedPatterns];
+
+        for (int k = secretOffset; k < secretOffset + length; k++) {
+            int s = 0;
+            for (int j = 0; j < 8; j++) {
+                int b = body.get(ValueLayout.JAVA_BYTE, cursor.position()) & 0xFF;
+                s = s << 1 | (b ^ inversions[b]) & DATA_MASK;
+                cursor.next();
+            }
+            secret[k] = (byte) s;
         }
-        return result;
+    }
+
+    @Override
+    public void decode(Image stegoImage, long offset, byte[] secret, int secretOffset, int length) {
+        Objects.checkFromIndexSize(offset, length, capacity(stegoImage));
+        Objects.checkFromIndexSize(secretOffset, length, secret.length);
+        var swappedPatterns = readSwappedPatterns(stegoImage);
+        ParallelRanges.run(0, length, PARALLEL_THRESHOLD,
+          (from, to) -> decode(stegoImage, swappedPatterns, offset + from, secret, secretOffset + from, to - from));
+    }
+
+    @Override
+    public InputStream decodeStream(Image stegoImage) {
+        // Read the pattern information once for the whole stream
+        var swappedPatterns = readSwappedPatterns(stegoImage);
+        return new StegoInputStream(
+          (offset, secret, secretOffset, length) -> ParallelRanges.run(0, length, PARALLEL_THRESHOLD,
+            (from, to) -> decode(stegoImage, swappedPatterns, offset + from, secret, secretOffset + from, to - from)),
+          capacity(stegoImage)
+        );
+    }
+
+    @Override
+    public byte[] decode(Image data) {
+        var secret = new byte[Math.toIntExact(capacity(data))];
+        decode(data, 0, secret, 0, secret.length);
+        return secret;
     }
 }
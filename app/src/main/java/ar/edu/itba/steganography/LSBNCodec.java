@@ -1,21 +1,38 @@
 package ar.edu.itba.steganography;
 
 import ar.edu.itba.Image;
+import ar.edu.itba.ImageHeader;
 import ar.edu.itba.steganography.exceptions.SecretTooLargeException;
 import ar.edu.itba.utils.DataUtils;
-import ar.edu.itba.utils.ImageUtils;
 
-import java.awt.*;
-import java.awt.image.BufferedImage;
-import java.util.ArrayList;
+import com.google.common.io.ByteSource;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.util.Objects;
 
 public class LSBNCodec implements StegoCodec {
 
+    /** How many secret bytes are read from the source at a time when embedding from a stream */
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    /** Ranges of secret bytes bigger than this are split across the fork-join pool */
+    private static final int PARALLEL_THRESHOLD = 64 * 1024;
+    /**
+     * Word accesses expect the first body byte to be the most significant one, which is how the data bits are ordered.
+     * Body positions are not aligned to words.
+     */
+    private static final ValueLayout.OfLong WORD = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+
     /** How many bytes of image are needed to fit one byte of data */
     private final short imageByteRatio;
     private final short n;
     private final byte pixelMask;
     private final byte dataMask;
+    /** The data bits of every byte in a word of 8 body bytes */
+    private final long wordMask;
 
     public LSBNCodec(int n) {
         if(n > 8 || n < 0) {
@@ -28,53 +45,132 @@ public class LSBNCodec implements StegoCodec {
         this.n = (short) n;
         this.pixelMask = (byte) ((byte) 0xFF << n);
         this.dataMask = (byte) (0xFF >>> (8-n));
+        this.wordMask = (dataMask & 0xFFL) * 0x0101010101010101L;
     }
 
-    @Override
-    public Image encode(byte[] secret, Image coverImage2)
-        throws SecretTooLargeException {
-        var coverImage = coverImage2.getBody().clone();
+    /**
+     * Writes the secret bytes into the image body, starting at the given body position.
+     * Each secret byte takes {@code imageByteRatio} body bytes, most significant bits first.
+     * Body bytes are processed a word at a time: every 8 body bytes hold exactly n secret bytes, which are spread
+     * over the data bits of the word with a single bit deposit. Whatever does not fill a word is written byte by byte.
+     */
+    private void embed(MemorySegment body, long position, byte[] secret, int offset, int length) {
+        int k = offset;
+        long b = position;
 
-        if (secret.length * imageByteRatio >= coverImage.length) {
-            throw new SecretTooLargeException(
-              coverImage.length / imageByteRatio,
-              secret.length
-            );
+        for (int end = offset + length - length % n; k < end; b += Long.BYTES) {
+            long value = 0;
+            for (int i = 0; i < n; i++) {
+                value = value << 8 | (secret[k++] & 0xFF);
+            }
+            body.set(WORD, b, body.get(WORD, b) & ~wordMask | Long.expand(value, wordMask));
         }
-        int b = 0;
 
-        for (byte s : secret) {
+        for (; k < offset + length; k++) {
+            byte s = secret[k];
             for (int i = imageByteRatio-1; i >= 0; i--) {
-                coverImage[b] = (byte) ((coverImage[b] & pixelMask) | (s >>> (n * i) & dataMask));
+                body.set(ValueLayout.JAVA_BYTE, b,
+                  (byte) ((body.get(ValueLayout.JAVA_BYTE, b) & pixelMask) | (s >>> (n * i) & dataMask)));
                 b++;
+            }
+        }
+    }
+
+    /**
+     * Reads secret bytes from the image body, starting at the given body position. Inverse of {@link #embed}.
+     */
+    private void extract(MemorySegment body, long position, byte[] secret, int offset, int length) {
+        int k = offset;
+        long b = position;
 
+        for (int end = offset + length - length % n; k < end; b += Long.BYTES) {
+            long value = Long.compress(body.get(WORD, b), wordMask);
+            for (int i = n - 1; i >= 0; i--) {
+                secret[k++] = (byte) (value >>> (8 * i));
             }
         }
 
-        return coverImage2.withBody(coverImage);
+        for (; k < offset + length; k++) {
+            byte s = 0;
+            for (int i = 0; i < imageByteRatio; i++) {
+                s |= (byte) ((body.get(ValueLayout.JAVA_BYTE, b++) & dataMask) << (8 - n - n * i));
+            }
+            secret[k] = s;
+        }
     }
 
     @Override
-    public byte[] decode(Image imageBytes) {
-        var secret = new ArrayList<Byte>(256);
-        short v = 0;
-        int[] values = new int[imageByteRatio];
-        for (var b : imageBytes.getBody()) {
-            values[v++] = b & dataMask;
-            if (v == imageByteRatio) {
-                byte s = 0;
-                for (int i = 0; i < imageByteRatio; i++) {
-                    s |= (byte) (values[i] << (8 - n - n * i));
+    public Image encode(byte[] secret, Image coverImage)
+        throws SecretTooLargeException {
+        // Written in place: for mapped images only the touched pages are copied
+        var body = coverImage.getBodySegment();
+
+        if ((long) secret.length * imageByteRatio > body.byteSize()) {
+            throw new SecretTooLargeException(
+              body.byteSize() / imageByteRatio,
+              secret.length
+            );
+        }
+        // Every secret byte maps to its own imageByteRatio body bytes, so disjoint ranges can be written concurrently
+        ParallelRanges.run(0, secret.length, PARALLEL_THRESHOLD,
+          (from, to) -> embed(body, (long) from * imageByteRatio, secret, from, to - from));
+
+        return coverImage;
+    }
+
+    @Override
+    public Image encode(ByteSource secret, Image coverImage)
+        throws SecretTooLargeException, IOException {
+        var body = coverImage.getBodySegment();
+        var length = secret.size();
+
+        if (length * imageByteRatio > body.byteSize()) {
+            throw new SecretTooLargeException(
+              body.byteSize() / imageByteRatio,
+              length
+            );
+        }
+
+        var chunk = new byte[(int) Math.min(CHUNK_SIZE, length)];
+        long position = 0;
+        var remaining = length;
+        try (var stream = secret.openStream()) {
+            while (remaining > 0) {
+                var read = stream.readNBytes(chunk, 0, (int) Math.min(chunk.length, remaining));
+                if (read == 0) {
+                    // The message header was written for the whole length
+                    throw new EOFException("The secret ended after " + (length - remaining) + " of " + length + " bytes");
                 }
-                secret.add(s);
-                v = 0;
+                var chunkPosition = position;
+                ParallelRanges.run(0, read, PARALLEL_THRESHOLD,
+                  (from, to) -> embed(body, chunkPosition + (long) from * imageByteRatio, chunk, from, to - from));
+                position += (long) read * imageByteRatio;
+                remaining -= read;
             }
         }
 
-        var result = new byte[secret.size()];
-        for (int i = 0; i < secret.size(); i++) {
-            result[i] = secret.get(i);
-        }
-        return result;
+        return coverImage;
+    }
+
+    @Override
+    public long capacity(ImageHeader image) {
+        return image.getBodySize() / imageByteRatio;
+    }
+
+    @Override
+    public void decode(Image stegoImage, long offset, byte[] secret, int secretOffset, int length) {
+        Objects.checkFromIndexSize(offset, length, capacity(stegoImage));
+        Objects.checkFromIndexSize(secretOffset, length, secret.length);
+        var body = stegoImage.getBodySegment();
+        ParallelRanges.run(0, length, PARALLEL_THRESHOLD,
+          (from, to) -> extract(body, (offset + from) * imageByteRatio, secret, secretOffset + from, to - from));
+    }
+
+    @Override
+    public byte[] decode(Image stegoImage) {
+        // Covers bigger than 2 GB can hold more than an array does, their messages are decoded by range
+        var secret = new byte[Math.toIntExact(capacity(stegoImage))];
+        decode(stegoImage, 0, secret, 0, secret.length);
+        return secret;
     }
 }
@@ -0,0 +1,54 @@
+package ar.edu.itba.steganography;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs an operation over a range of secret bytes, splitting it into disjoint chunks that run on the common
+ * fork-join pool. Ranges no bigger than the threshold run on the calling thread.
+ */
+final class ParallelRanges {
+
+    @FunctionalInterface
+    interface RangeOperation {
+        void apply(int from, int to);
+    }
+
+    private static class RangeTask extends RecursiveAction {
+        private final int from;
+        private final int to;
+        private final int threshold;
+        private final RangeOperation operation;
+
+        RangeTask(int from, int to, int threshold, RangeOperation operation) {
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+            this.operation = operation;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= threshold) {
+                operation.apply(from, to);
+                return;
+            }
+            var middle = from + (to - from) / 2;
+            invokeAll(
+                new RangeTask(from, middle, threshold, operation),
+                new RangeTask(middle, to, threshold, operation)
+            );
+        }
+    }
+
+    private ParallelRanges() {
+    }
+
+    static void run(int from, int to, int threshold, RangeOperation operation) {
+        if (to - from <= threshold) {
+            operation.apply(from, to);
+            return;
+        }
+        ForkJoinPool.commonPool().invoke(new RangeTask(from, to, threshold, operation));
+    }
+}
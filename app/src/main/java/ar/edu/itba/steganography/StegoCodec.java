@@ -1,16 +1,29 @@
 package ar.edu.itba.steganography;
 
 import ar.edu.itba.Image;
+import ar.edu.itba.ImageHeader;
 import ar.edu.itba.steganography.exceptions.SecretTooLargeException;
-import java.awt.image.BufferedImage;
+import ar.edu.itba.utils.DataUtils;
+import com.google.common.io.ByteSource;
+
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Objects;
 
 public interface StegoCodec {
+    /** Size of the scratch array used to decode into buffers that are not backed by one */
+    int DECODE_CHUNK_SIZE = 1024 * 1024;
+
     /**
-     * Encodes a secret message into a cover image
+     * Encodes a secret message into a cover image.
+     * The pixel data of the cover is modified in place, so the cover cannot be reused afterwards: embed into a fresh
+     * copy of it, such as another {@link Image#open}, to embed again. Images mapped from a file are mapped privately,
+     * so the file itself only changes when the image is saved over it.
      * @param secret The secret message to encode. This must be the final version of the message, with any padding or transformation already applied.
-     * @param coverImage The cover image to encode the secret message into.
-     * @return The stego image with the secret message encoded.
+     * @param coverImage The cover image to encode the secret message into. Its pixel data is overwritten.
+     * @return The cover image itself, now holding the secret message.
      * @throws SecretTooLargeException If the secret message is too large to be encoded in the cover image.
      */
     Image encode(byte[] secret, Image coverImage)
@@ -22,4 +35,98 @@ public interface StegoCodec {
      * @return The secret message decoded from the stego image.
      */
     byte[] decode(Image stegoImage);
+
+    /**
+     * Encodes a secret message read from a source into a cover image.
+     * The source may be opened more than once, so it must yield the same bytes every time.
+     * By default the whole message is read into memory, codecs that can embed it as it is read should override this.
+     * Like {@link #encode(byte[], Image)}, the pixel data of the cover is modified in place.
+     * @param secret The source of the secret message to encode, already in its final form.
+     * @param coverImage The cover image to encode the secret message into. Its pixel data is overwritten.
+     * @return The cover image itself, now holding the secret message.
+     * @throws SecretTooLargeException If the secret message is too large to be encoded in the cover image.
+     * @throws IOException If the secret message could not be read.
+     */
+    default Image encode(ByteSource secret, Image coverImage)
+        throws SecretTooLargeException, IOException {
+        return encode(secret.read(), coverImage);
+    }
+
+    /**
+     * @param image The image to embed into or extract from, or just its header.
+     * @return How many bytes of data fit in the image.
+     * @throws IllegalArgumentException If the method does not support the image format.
+     */
+    long capacity(ImageHeader image);
+
+    /**
+     * Decodes a range of the data hidden in a stego image. Nothing outside of the range gets extracted.
+     * @param stegoImage The stego image to decode the data from.
+     * @param offset Position of the first byte to decode, relative to the start of the hidden data.
+     * @param secret Array where the decoded bytes are written.
+     * @param secretOffset Position in {@code secret} where the first decoded byte is written.
+     * @param length How many bytes to decode.
+     * @throws IndexOutOfBoundsException If the range goes past the capacity of the image or the end of {@code secret}.
+     */
+    void decode(Image stegoImage, long offset, byte[] secret, int secretOffset, int length);
+
+    /**
+     * Decodes a range of the data hidden in a stego image into a new array.
+     * @see #decode(Image, long, byte[], int, int)
+     */
+    default byte[] decode(Image stegoImage, long offset, int length) {
+        var secret = new byte[length];
+        decode(stegoImage, offset, secret, 0, length);
+        return secret;
+    }
+
+    /**
+     * Decodes a range of the data hidden in a stego image into a buffer, from its position up to its limit.
+     * The position is advanced past the decoded bytes. Buffers backed by an array are written in place, any other
+     * buffer goes through a scratch array of at most {@link #DECODE_CHUNK_SIZE} bytes, allocated once per call.
+     * @see #decode(Image, long, byte[], int, int)
+     */
+    default void decode(Image stegoImage, long offset, ByteBuffer secret) {
+        var length = secret.remaining();
+        Objects.checkFromIndexSize(offset, length, capacity(stegoImage));
+        if (secret.hasArray()) {
+            decode(stegoImage, offset, secret.array(), secret.arrayOffset() + secret.position(), length);
+            secret.position(secret.position() + length);
+            return;
+        }
+        var chunk = new byte[Math.min(length, DECODE_CHUNK_SIZE)];
+        while (secret.hasRemaining()) {
+            var count = Math.min(chunk.length, secret.remaining());
+            decode(stegoImage, offset, chunk, 0, count);
+            secret.put(chunk, 0, count);
+            offset += count;
+        }
+    }
+
+    /**
+     * Decodes a length prefixed message. The 4 byte length header is read first and then exactly that many bytes
+     * are extracted, so the rest of the image is never visited.
+     * @param stegoImage The stego image to decode the message from.
+     * @return The message without its length header.
+     * @throws IllegalArgumentException If the length header does not fit in the image.
+     */
+    default byte[] decodeMessage(Image stegoImage) {
+        var length = DataUtils.bytesToInt(decode(stegoImage, 0, 4), 0);
+        if (length < 0 || length > capacity(stegoImage) - 4) {
+            throw new IllegalArgumentException("Invalid message length: " + length);
+        }
+        return decode(stegoImage, 4, length);
+    }
+
+    /**
+     * Returns a stream over the data hidden in a stego image. Only the bytes that are read get extracted.
+     * @param stegoImage The stego image to decode the secret message from.
+     * @return A stream that yields every byte that can be extracted from the image.
+     */
+    default InputStream decodeStream(Image stegoImage) {
+        return new StegoInputStream(
+            (offset, secret, secretOffset, length) -> decode(stegoImage, offset, secret, secretOffset, length),
+            capacity(stegoImage)
+        );
+    }
 }
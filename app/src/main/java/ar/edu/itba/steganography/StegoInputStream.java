@@ -0,0 +1,54 @@
+package ar.edu.itba.steganography;
+
+import java.io.InputStream;
+import java.util.Objects;
+
+/**
+ * Stream over the data hidden in a stego image. Bytes are extracted from the image only as they are read.
+ */
+class StegoInputStream extends InputStream {
+
+    @FunctionalInterface
+    interface RangeDecoder {
+        void decode(long offset, byte[] secret, int secretOffset, int length);
+    }
+
+    private final RangeDecoder decoder;
+    private final long capacity;
+    private final byte[] single = new byte[1];
+    private long position = 0;
+
+    StegoInputStream(RangeDecoder decoder, long capacity) {
+        this.decoder = decoder;
+        this.capacity = capacity;
+    }
+
+    @Override
+    public int read() {
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        Objects.checkFromIndexSize(off, len, b.length);
+        var length = (int) Math.min(len, capacity - position);
+        if (length == 0) {
+            return len == 0 ? 0 : -1;
+        }
+        decoder.decode(position, b, off, length);
+        position += length;
+        return length;
+    }
+
+    @Override
+    public long skip(long n) {
+        var skipped = Math.max(0, Math.min(n, capacity - position));
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, capacity - position);
+    }
+}
@@ -11,4 +11,11 @@ public class SecretTooLargeException extends Exception {
             " bytes."
         );
     }
+
+    /**
+     * For secrets that are too large whatever the cover image.
+     */
+    public SecretTooLargeException(String message) {
+        super(message);
+    }
 }
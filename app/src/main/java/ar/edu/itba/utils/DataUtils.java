@@ -39,7 +39,11 @@ public final class DataUtils {
         }
 
         try (var fis = new FileInputStream(file)) {
-            fis.read(byteArray, offset, (int) file.length());
+            // A single read may return fewer bytes than asked for
+            var length = (int) file.length();
+            if (fis.readNBytes(byteArray, offset, length) != length) {
+                throw new IOException("File ended early");
+            }
         } catch (IOException e) {
             throw new IllegalArgumentException(
                 "An error occurred while reading the file"
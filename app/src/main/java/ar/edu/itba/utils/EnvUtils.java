@@ -1,28 +1,66 @@
 package ar.edu.itba.utils;
 
-import io.github.cdimascio.dotenv.Dotenv;
-
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.function.Function;
 
+/**
+ * Settings read from the environment or from a .env file in the working directory, with the environment taking
+ * precedence. The file is parsed here instead of through a library, so the command line and the native executable
+ * carry no dependency for it.
+ */
 public final class EnvUtils {
-    private static Dotenv dotenv;
-    private static boolean initialized = false;
+    private static final Path ENV_FILE = Path.of(".env");
+    private static final Map<String, String> fileValues = readEnvFile();
 
-    static {
-        try {
-            dotenv = Dotenv.load();
-            initialized = true;
-        } catch (Exception e) {
+    private EnvUtils() {
+    }
+
+    /**
+     * Reads KEY=VALUE lines, skipping blank lines and comments. Values may be quoted and lines may start with export.
+     */
+    private static Map<String, String> readEnvFile() {
+        var values = new HashMap<String, String>();
+        if (!Files.isRegularFile(ENV_FILE)) {
             System.err.println(".env file not found. Default values will be used");
-            dotenv = null;
+            return values;
         }
+        try {
+            for (var line : Files.readAllLines(ENV_FILE, StandardCharsets.UTF_8)) {
+                line = line.strip();
+                if (line.startsWith("export ")) {
+                    line = line.substring("export ".length()).strip();
+                }
+                var separator = line.indexOf('=');
+                if (line.isEmpty() || line.startsWith("#") || separator <= 0) {
+                    continue;
+                }
+                var value = line.substring(separator + 1).strip();
+                if (value.length() >= 2 && (value.startsWith("\"") && value.endsWith("\"")
+                  || value.startsWith("'") && value.endsWith("'"))) {
+                    value = value.substring(1, value.length() - 1);
+                }
+                values.put(line.substring(0, separator).strip(), value);
+            }
+        } catch (IOException e) {
+            System.err.println(".env file could not be read. Default values will be used: " + e.getMessage());
+            values.clear();
+        }
+        return values;
+    }
+
+    private static String lookup(String key) {
+        var value = System.getenv(key);
+        return value != null ? value : fileValues.get(key);
     }
 
     public static String get(String key, String defaultValue) {
-        if(!initialized) {
-            return defaultValue;
-        }
-        return dotenv.get(key);
+        var value = lookup(key);
+        return value != null ? value : defaultValue;
     }
 
     public static String get(String key) {
@@ -30,10 +68,7 @@ public final class EnvUtils {
     }
 
     public static Integer getInt(String key, Function<String, Integer> converter, Integer defaultValue) {
-        if(!initialized) {
-            return defaultValue;
-        }
-        var value = dotenv.get(key);
+        var value = lookup(key);
         if(value == null) {
             return defaultValue;
         }
@@ -49,10 +84,7 @@ public final class EnvUtils {
     }
 
     public static Long getLong(String key, Function<String, Long> converter, Long defaultValue) {
-        if(!initialized) {
-            return defaultValue;
-        }
-        var value = dotenv.get(key);
+        var value = lookup(key);
         if(value == null) {
             return defaultValue;
         }
@@ -1,10 +1,46 @@
 package ar.edu.itba.utils;
 
+import ar.edu.itba.Image;
+
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.SequenceInputStream;
+import javax.imageio.ImageIO;
 
+/**
+ * Conversions between {@link Image} and AWT images. The codecs never go through here, which keeps AWT out of the
+ * native executable.
+ */
 public final class ImageUtils {
 
+    public static Image fromBufferedImage(BufferedImage image) {
+        var outputStream = new ByteArrayOutputStream();
+        try {
+            ImageIO.write(image, "bmp", outputStream);
+            var encoded = new ByteArrayInputStream(outputStream.toByteArray());
+            return new Image(encoded);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        return null;
+    }
+
+    public static BufferedImage toBufferedImage(Image image) {
+        var stream = new SequenceInputStream(
+                new ByteArrayInputStream(image.getHeader()),
+                new ByteArrayInputStream(image.getBody()));
+        try {
+            return ImageIO.read(stream);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
     public static BufferedImage deepCopy(BufferedImage original) {
         if (original == null) {
             throw new IllegalArgumentException(
@@ -0,0 +1,81 @@
+package ar.edu.itba;
+
+import ar.edu.itba.config.SteganographyAlgorithmType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static ar.edu.itba.TestFixtures.createBitmap;
+import static ar.edu.itba.TestFixtures.createCoverImage;
+import static ar.edu.itba.TestFixtures.createStegoCodec;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CoverIndexTest {
+
+    @TempDir
+    Path directory;
+
+    private static long capacity(SteganographyAlgorithmType method, Path cover) throws Exception {
+        return createStegoCodec(method).capacity(Image.open(cover.toFile()));
+    }
+
+    @Test
+    public void testSmallestCoverThatFitsIsSelected() throws Exception {
+        var small = createCoverImage(40, 30).save(directory.resolve("small.bmp").toFile()).toPath();
+        Files.createDirectories(directory.resolve("nested"));
+        var large = createCoverImage(101, 77).save(directory.resolve("nested/large.bmp").toFile()).toPath();
+        // LSBI only supports 24 bit images
+        var wide = createBitmap(90, 60, 32).save(directory.resolve("wide.bmp").toFile()).toPath();
+
+        var index = CoverIndex.update(directory.toFile());
+        assertEquals(3, index.entries().size());
+        var wideEntry = index.entries().stream().filter(e -> e.cover().equals(wide)).findFirst().orElseThrow();
+        assertEquals(0, wideEntry.capacity(SteganographyAlgorithmType.LSBI));
+        assertEquals(capacity(SteganographyAlgorithmType.LSB1, wide), wideEntry.capacity(SteganographyAlgorithmType.LSB1));
+
+        var smallCapacity = capacity(SteganographyAlgorithmType.LSBI, small);
+        assertEquals(small, index.select(SteganographyAlgorithmType.LSBI, 10).orElseThrow().cover());
+        // A message that fills a cover exactly fits in it
+        assertEquals(small, index.select(SteganographyAlgorithmType.LSBI, smallCapacity).orElseThrow().cover());
+        assertEquals(large, index.select(SteganographyAlgorithmType.LSBI, smallCapacity + 1).orElseThrow().cover());
+        assertTrue(index.select(SteganographyAlgorithmType.LSBI, capacity(SteganographyAlgorithmType.LSBI, large) + 1).isEmpty());
+        // The 32 bit cover sits between the other two for the methods that support it
+        assertEquals(wide, index.select(SteganographyAlgorithmType.LSB1, capacity(SteganographyAlgorithmType.LSB1, small) + 1).orElseThrow().cover());
+    }
+
+    @Test
+    public void testIndexIsRefreshedWhenCoversChange() throws Exception {
+        var first = createCoverImage(40, 30).save(directory.resolve("first.bmp").toFile()).toPath();
+        var second = createCoverImage(50, 30).save(directory.resolve("second.bmp").toFile()).toPath();
+        CoverIndex.update(directory.toFile());
+        var indexFile = directory.resolve(CoverIndex.INDEX_FILE_NAME);
+        assertTrue(Files.isRegularFile(indexFile));
+
+        // Unchanged covers come from the index without reading them again
+        var written = Files.readString(indexFile);
+        var lsb1 = capacity(SteganographyAlgorithmType.LSB1, first);
+        Files.writeString(indexFile, written.replace("\t" + lsb1 + "\t", "\t7\t"));
+        var cached = CoverIndex.update(directory.toFile());
+        assertEquals(7, cached.entries().getFirst().capacity(SteganographyAlgorithmType.LSB1));
+
+        // Corrupt lines are scanned again
+        Files.writeString(indexFile, written.replace("\t" + lsb1 + "\t", "\tseven\t"));
+        var rescanned = CoverIndex.update(directory.toFile());
+        assertEquals(lsb1, rescanned.entries().getFirst().capacity(SteganographyAlgorithmType.LSB1));
+        assertEquals(written, Files.readString(indexFile), "The index should be written again.");
+
+        // A changed cover is scanned again and the index written back
+        createCoverImage(120, 90).save(first.toFile());
+        Files.setLastModifiedTime(first, FileTime.fromMillis(Files.getLastModifiedTime(first).toMillis() + 2000));
+        Files.delete(second);
+        var refreshed = CoverIndex.update(directory.toFile());
+        assertEquals(1, refreshed.entries().size());
+        assertEquals(capacity(SteganographyAlgorithmType.LSB1, first), refreshed.entries().getFirst().capacity(SteganographyAlgorithmType.LSB1));
+        assertFalse(Files.readString(indexFile).contains("second.bmp"), "Deleted covers should leave the index.");
+        var reloaded = CoverIndex.update(directory.toFile());
+        assertArrayEquals(refreshed.entries().getFirst().capacities(), reloaded.entries().getFirst().capacities());
+    }
+}
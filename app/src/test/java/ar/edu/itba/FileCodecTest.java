@@ -0,0 +1,127 @@
+package ar.edu.itba;
+
+import ar.edu.itba.config.EncryptionAlgorithmType;
+import ar.edu.itba.config.EncryptionMode;
+import ar.edu.itba.config.SteganographyAlgorithmType;
+import ar.edu.itba.encryption.EncryptionCodec;
+import ar.edu.itba.steganography.exceptions.SecretTooLargeException;
+import com.google.common.io.Closer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import static ar.edu.itba.TestFixtures.createCoverImage;
+import static ar.edu.itba.TestFixtures.createStegoCodec;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FileCodecTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testShardedMessagesRoundTrip() throws Exception {
+        var secret = directory.resolve("secret.bin");
+        var covers = new ArrayList<File>();
+        for (int i = 0; i < 3; i++) {
+            covers.add(createCoverImage(71, 53).save(directory.resolve("cover" + i + ".bmp").toFile()));
+        }
+
+        for (var algo : SteganographyAlgorithmType.values()) {
+            var codec = new FileCodec(createStegoCodec(algo), null);
+            var data = new byte[(int) createStegoCodec(algo).capacity(Image.open(covers.getFirst())) * 2];
+            new Random(42).nextBytes(data);
+            Files.write(secret, data);
+            // A single cover is too small, so the message needs more than one of them
+            assertThrows(SecretTooLargeException.class, () -> codec.embed(
+              secret.toFile(), covers.getFirst(), directory.resolve("whole.bmp").toFile(), null));
+
+            var stegoImages = new ArrayList<>(codec.embedSharded(
+              secret.toFile(), covers, directory.resolve("stego.bmp").toFile(), null));
+            assertTrue(stegoImages.size() > 1, "The message should be split.");
+            Collections.reverse(stegoImages);
+            var extracted = codec.extractSharded(stegoImages, directory.resolve("extracted").toFile(), null);
+
+            assertEquals("extracted.bin", extracted.getName());
+            assertArrayEquals(data, Files.readAllBytes(extracted.toPath()), "Round trip with " + algo);
+            assertThrows(IllegalArgumentException.class, () -> codec.extractSharded(
+              stegoImages.subList(1, stegoImages.size()), directory.resolve("partial").toFile(), null));
+        }
+    }
+
+    @Test
+    public void testStagedMessagesMatchWholeOnes() throws Exception {
+        var secret = directory.resolve("secret.data");
+        var bytes = new byte[1500];
+        new Random(7).nextBytes(bytes);
+        Files.write(secret, bytes);
+        var cover = createCoverImage(101, 77).save(directory.resolve("cover.bmp").toFile());
+
+        for (var algo : SteganographyAlgorithmType.values()) {
+            for (var encryption : Arrays.asList(null, new EncryptionCodec(EncryptionAlgorithmType.AES256, EncryptionMode.CBC))) {
+                var codec = new FileCodec(createStegoCodec(algo), encryption);
+                try (var closer = Closer.create()) {
+                    var message = codec.prepareMessage(secret.toFile(), "password", closer);
+                    var stego = FileCodec.saveStegoImage(
+                      codec.embedMessage(message, Image.open(cover)), directory.resolve("stego.bmp").toFile());
+                    // Staged messages are whole ones, the usual extraction reads them
+                    var extracted = codec.extract(stego, directory.resolve("extracted").toFile(), "password");
+                    assertArrayEquals(bytes, Files.readAllBytes(extracted.toPath()));
+
+                    var unpacked = codec.unpackMessage(codec.decodeMessage(Image.open(stego), closer), "password", closer);
+                    var staged = FileCodec.writeExtracted(unpacked, directory.resolve("staged").toFile());
+                    assertEquals("staged.data", staged.getName());
+                    assertArrayEquals(bytes, Files.readAllBytes(staged.toPath()), "Staged round trip with " + algo);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFootprintCountsPixelsAndMessages() throws Exception {
+        var cover = createCoverImage(101, 77).save(directory.resolve("cover.bmp").toFile());
+        var bodySize = ImageHeader.read(cover).getBodySize();
+        for (var algo : SteganographyAlgorithmType.values()) {
+            var codec = new FileCodec(createStegoCodec(algo), null);
+            // Small images are read into the heap whole
+            assertTrue(codec.footprint(cover, 100) >= bodySize, "The footprint should count the pixel data.");
+            assertTrue(codec.footprint(cover, -1) >= codec.footprint(cover, 100), "Extractions should assume the largest message.");
+            // Authenticated ciphers buffer the whole ciphertext before checking it
+            var authenticated = new FileCodec(createStegoCodec(algo), new EncryptionCodec(EncryptionAlgorithmType.AES128, EncryptionMode.GCM));
+            long capacity = createStegoCodec(algo).capacity(Image.open(cover));
+            assertEquals(codec.footprint(cover, -1) + capacity, authenticated.footprint(cover, -1));
+        }
+    }
+
+    @Test
+    public void testSecretsOver2GbAreRejected() throws Exception {
+        // Sparse files, nothing gets written to the disk
+        var huge = directory.resolve("huge.bin").toFile();
+        try (var file = new RandomAccessFile(huge, "rw")) {
+            file.setLength(Integer.MAX_VALUE + 1L);
+        }
+        var codec = new FileCodec(createStegoCodec(SteganographyAlgorithmType.LSB1), null);
+        assertThrows(SecretTooLargeException.class, () -> codec.messageSize(huge));
+        try (var stream = new FileByteSource(huge).openStream()) {
+            assertEquals(16, stream.readNBytes(16).length, "Files over 2 GB should still be readable.");
+        }
+
+        // The file length fits, but padding pushes the ciphertext past it
+        var almost = directory.resolve("almost.bin").toFile();
+        try (var file = new RandomAccessFile(almost, "rw")) {
+            file.setLength(Integer.MAX_VALUE - 4);
+        }
+        var encrypted = new FileCodec(
+          createStegoCodec(SteganographyAlgorithmType.LSB1), new EncryptionCodec(EncryptionAlgorithmType.AES128, EncryptionMode.CBC));
+        assertTrue(codec.messageSize(almost) > Integer.MAX_VALUE);
+        assertThrows(SecretTooLargeException.class, () -> encrypted.messageSize(almost));
+    }
+}
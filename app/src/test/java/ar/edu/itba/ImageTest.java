@@ -0,0 +1,82 @@
+package ar.edu.itba;
+
+import ar.edu.itba.config.SteganographyAlgorithmType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static ar.edu.itba.TestFixtures.createCoverImage;
+import static ar.edu.itba.TestFixtures.createStegoCodec;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ImageTest {
+
+    @TempDir
+    Path directory;
+
+    private static byte[] createSecret(int length) {
+        var secret = new byte[length];
+        new Random(length).nextBytes(secret);
+        return secret;
+    }
+
+    @Test
+    public void testMappedImagesEmbedInPlace() throws Exception {
+        // Odd width so that rows are padded
+        var cover = createCoverImage(101, 77).save(directory.resolve("cover.bmp").toFile());
+        var original = Files.readAllBytes(cover.toPath());
+        var secret = createSecret(900);
+
+        for (var algo : SteganographyAlgorithmType.values()) {
+            var codec = createStegoCodec(algo);
+            var mapped = Image.open(cover, 0);
+            assertInstanceOf(MappedImage.class, mapped);
+            assertTrue(mapped.getBodySegment().isMapped());
+
+            var stego = codec.encode(secret, mapped).save(directory.resolve(algo + ".bmp").toFile());
+            assertArrayEquals(original, Files.readAllBytes(cover.toPath()), "Embedding should not modify the mapped file.");
+            // Mapped images hold the same bytes as the ones read into the heap
+            var expected = codec.encode(secret, Image.open(cover, Long.MAX_VALUE));
+            assertArrayEquals(expected.getBody(), Image.open(stego).getBody(), "Stego images should match with " + algo);
+            assertArrayEquals(secret, codec.decode(Image.open(stego, 0), 0, secret.length));
+        }
+    }
+
+    @Test
+    public void testMappedImagesSaveOverTheirSource() throws Exception {
+        var cover = createCoverImage(101, 77).save(directory.resolve("cover.bmp").toFile());
+        var secret = createSecret(500);
+        var codec = createStegoCodec(SteganographyAlgorithmType.LSB4);
+
+        var mapped = MappedImage.map(cover);
+        var expected = codec.encode(secret, Image.open(cover, Long.MAX_VALUE)).getBody();
+        assertEquals(cover, codec.encode(secret, mapped).save(cover));
+
+        assertArrayEquals(expected, Image.open(cover).getBody(), "The source should hold the stego image.");
+        assertArrayEquals(secret, codec.decode(Image.open(cover), 0, secret.length));
+        try (var files = Files.list(directory)) {
+            assertEquals(1, files.count(), "No temporary file should be left behind.");
+        }
+    }
+
+    @Test
+    public void testReadOnlyFilesAreCopiedOffHeap() throws Exception {
+        var cover = createCoverImage(101, 77).save(directory.resolve("cover.bmp").toFile());
+        assertTrue(cover.setReadOnly());
+        var original = Files.readAllBytes(cover.toPath());
+        var secret = createSecret(700);
+        var codec = createStegoCodec(SteganographyAlgorithmType.LSBI);
+
+        var image = Image.readOffHeap(cover);
+        assertTrue(image.getBodySegment().isNative(), "The body should live out of the heap.");
+        assertFalse(image.getBodySegment().isMapped());
+        assertArrayEquals(Image.open(cover, Long.MAX_VALUE).getBody(), image.getBody());
+
+        var stego = codec.encode(secret, image).save(directory.resolve("stego.bmp").toFile());
+        assertArrayEquals(original, Files.readAllBytes(cover.toPath()));
+        assertArrayEquals(secret, codec.decode(Image.open(stego), 0, secret.length));
+    }
+}
@@ -0,0 +1,58 @@
+package ar.edu.itba;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MemoryBudgetTest {
+
+    @Test
+    public void testMemoryBudgetAdmitsJobsThatFit() throws Exception {
+        var budget = new MemoryBudget(100);
+        assertEquals(60, budget.acquire(60));
+        var large = new CompletableFuture<Long>();
+        Thread.ofVirtual().start(() -> {
+            try {
+                large.complete(budget.acquire(500));
+            } catch (InterruptedException e) {
+                large.completeExceptionally(e);
+            }
+        });
+        // Smaller jobs pass the one that does not fit yet
+        assertEquals(30, budget.acquire(30));
+        Thread.sleep(50);
+        assertFalse(large.isDone(), "A job bigger than the room left should wait.");
+        budget.release(60);
+        budget.release(30);
+        long admitted = large.get(5, TimeUnit.SECONDS);
+        assertEquals(100, admitted, "A job bigger than the budget should run alone.");
+        assertEquals(100, budget.peak());
+    }
+
+    @Test
+    public void testConcurrentJobsStayWithinTheBudget() throws Exception {
+        var budget = new MemoryBudget(1000);
+        var futures = new ArrayList<Future<?>>();
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < 200; i++) {
+                var bytes = 50L + i * 37 % 400;
+                futures.add(executor.submit(() -> {
+                    var taken = budget.acquire(bytes);
+                    Thread.sleep(1);
+                    budget.release(taken);
+                    return null;
+                }));
+            }
+            for (var future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        }
+        assertTrue(budget.peak() <= budget.budget(), "The budget should never be exceeded: " + budget.peak());
+    }
+}
@@ -0,0 +1,55 @@
+package ar.edu.itba;
+
+import ar.edu.itba.config.SteganographyAlgorithmType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static ar.edu.itba.TestFixtures.createBitmap;
+import static ar.edu.itba.TestFixtures.createCoverImage;
+import static ar.edu.itba.TestFixtures.createStegoCodec;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MethodDetectorTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testMethodIsDetectedOnExtract() throws Exception {
+        var secret = directory.resolve("secret.txt");
+        Files.writeString(secret, "Hello, detection!");
+        var cover = createCoverImage(101, 77).save(directory.resolve("cover.bmp").toFile());
+        var detector = new MethodDetector(null, null);
+        assertTrue(detector.candidates(Image.open(cover)).isEmpty(), "A blank cover should hold no message.");
+
+        for (var algo : SteganographyAlgorithmType.values()) {
+            var stego = new FileCodec(createStegoCodec(algo), null)
+              .embed(secret.toFile(), cover, directory.resolve("stego.bmp").toFile(), null);
+            var detection = detector.extract(stego, directory.resolve("extracted").toFile(), null);
+
+            assertEquals(algo, detection.method());
+            assertEquals("extracted.txt", detection.output().getName());
+            assertArrayEquals(Files.readAllBytes(secret), Files.readAllBytes(detection.output().toPath()));
+        }
+    }
+
+    @Test
+    public void testUnsupportedMethodsAreNotCandidates() throws Exception {
+        var secret = directory.resolve("secret.txt");
+        Files.writeString(secret, "Hello, gray detection!");
+        // LSBI only supports 24 bit images
+        var cover = createBitmap(101, 77, 32).save(directory.resolve("cover.bmp").toFile());
+        var stego = new FileCodec(createStegoCodec(SteganographyAlgorithmType.LSB1), null)
+          .embed(secret.toFile(), cover, directory.resolve("stego.bmp").toFile(), null);
+
+        var detector = new MethodDetector(null, null);
+        assertEquals(List.of(SteganographyAlgorithmType.LSB1), detector.candidates(Image.open(stego)));
+        var detection = detector.extract(stego, directory.resolve("extracted").toFile(), null);
+        assertEquals(SteganographyAlgorithmType.LSB1, detection.method());
+        assertArrayEquals(Files.readAllBytes(secret), Files.readAllBytes(detection.output().toPath()));
+    }
+}
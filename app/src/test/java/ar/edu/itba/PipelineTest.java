@@ -0,0 +1,63 @@
+package ar.edu.itba;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PipelineTest {
+
+    /** An item that records the stages it went through */
+    private record Item(int id, List<String> stages) {
+    }
+
+    @Test
+    public void testItemsGoThroughEveryStage() throws Exception {
+        var errors = Collections.synchronizedList(new ArrayList<Item>());
+        var running = new AtomicInteger();
+        var maxRunning = new AtomicInteger();
+        var pipeline = new Pipeline<Item>(2, 1, (item, e) -> errors.add(item))
+          .ioStage("read", 3, item -> item.stages().add("read"))
+          .cpuStage("work", item -> {
+              maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+              try {
+                  Thread.sleep(2);
+                  if (item.id() == 3) {
+                      throw new IOException("Item 3 fails");
+                  }
+                  item.stages().add("work");
+              } finally {
+                  running.decrementAndGet();
+              }
+          })
+          .ioStage("write", 1, item -> item.stages().add("write"));
+
+        var items = IntStream.range(0, 20).mapToObj(id -> new Item(id, Collections.synchronizedList(new ArrayList<>()))).toList();
+        var done = new ArrayList<Item>();
+        pipeline.run(items, done::add);
+
+        assertEquals(items.size(), done.size(), "Every item should leave the pipeline.");
+        assertEquals(List.of(items.get(3)), errors);
+        // A failed item skips the rest of the stages
+        assertEquals(List.of("read"), items.get(3).stages());
+        for (var item : items) {
+            if (item.id() != 3) {
+                assertEquals(List.of("read", "work", "write"), item.stages());
+            }
+        }
+        assertTrue(maxRunning.get() <= 2, "CPU stages should not run more steps than the pipeline has threads.");
+
+        var statistics = pipeline.statistics();
+        assertEquals(List.of("read", "work", "write"), statistics.stream().map(Pipeline.StageStatistics::name).toList());
+        assertEquals(20, statistics.get(0).items());
+        assertEquals(20, statistics.get(1).items());
+        assertEquals(19, statistics.get(2).items());
+        assertTrue(statistics.get(1).maxQueued() <= 1, "Queues should stay within their depth.");
+    }
+}
@@ -0,0 +1,126 @@
+package ar.edu.itba;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static ar.edu.itba.TestFixtures.createCoverImage;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StegoServerTest {
+
+    @TempDir
+    Path directory;
+
+    /**
+     * @param text The error message, or the extension of an extracted secret.
+     */
+    private record Response(byte status, String text, byte[] result) {
+    }
+
+    /** @return The files of a request, each one prefixed by its length */
+    private static byte[] files(byte[]... files) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        var out = new DataOutputStream(bytes);
+        for (var file : files) {
+            out.writeLong(file.length);
+            out.write(file);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Sends one job and reads its response.
+     * @param extension Extension of the secret, only sent with embed requests.
+     */
+    private static Response send(Path socket, List<String> arguments, String extension, byte[] files) throws IOException {
+        try (var channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            channel.connect(UnixDomainSocketAddress.of(socket));
+            var request = new DataOutputStream(Channels.newOutputStream(channel));
+            request.writeInt(arguments.size());
+            for (var argument : arguments) {
+                request.writeUTF(argument);
+            }
+            if (extension != null) {
+                request.writeUTF(extension);
+            }
+            request.write(files);
+            request.flush();
+
+            var response = new DataInputStream(Channels.newInputStream(channel));
+            var status = response.readByte();
+            if (status != StegoServer.STATUS_OK) {
+                return new Response(status, response.readUTF(), null);
+            }
+            var text = arguments.contains("-extract") ? response.readUTF() : null;
+            var result = new byte[Math.toIntExact(response.readLong())];
+            response.readFully(result);
+            return new Response(status, text, result);
+        }
+    }
+
+    @Test
+    public void testJobsRoundTripOverTheSocket() throws Exception {
+        var socket = directory.resolve("stegobmp.sock");
+        var server = new StegoServer(socket);
+        var serving = Thread.ofVirtual().start(() -> {
+            try {
+                server.serve();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        try {
+            while (!Files.exists(socket)) {
+                assertTrue(serving.isAlive(), "The server should be listening.");
+                Thread.sleep(10);
+            }
+            assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(socket));
+
+            var secret = new byte[1500];
+            new Random(3).nextBytes(secret);
+            var cover = Files.readAllBytes(createCoverImage(101, 77).save(directory.resolve("cover.bmp").toFile()).toPath());
+            var options = List.of("-steg", "LSBI", "-a", "aes256", "-m", "cbc", "-pass", "secret");
+
+            var embedArguments = new ArrayList<>(options);
+            embedArguments.addFirst("-embed");
+            var embedded = send(socket, embedArguments, ".bin", files(secret, cover));
+            assertEquals(StegoServer.STATUS_OK, embedded.status(), embedded.text());
+            assertEquals(cover.length, embedded.result().length);
+
+            var extractArguments = new ArrayList<>(options);
+            extractArguments.addFirst("-extract");
+            var extracted = send(socket, extractArguments, null, files(embedded.result()));
+            assertEquals(StegoServer.STATUS_OK, extracted.status(), extracted.text());
+            assertEquals(".bin", extracted.text());
+            assertArrayEquals(secret, extracted.result());
+
+            // The count is checked before anything is allocated for the arguments
+            try (var channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+                channel.connect(UnixDomainSocketAddress.of(socket));
+                new DataOutputStream(Channels.newOutputStream(channel)).writeInt(Integer.MAX_VALUE);
+                var response = new DataInputStream(Channels.newInputStream(channel));
+                assertEquals(StegoServer.STATUS_ERROR, response.readByte());
+                assertTrue(response.readUTF().contains("Invalid number of arguments"));
+            }
+        } finally {
+            server.close();
+            serving.join();
+        }
+        assertFalse(Files.exists(socket), "The socket should be removed once the server stops.");
+    }
+}
@@ -0,0 +1,73 @@
+package ar.edu.itba;
+
+import ar.edu.itba.config.SteganographyAlgorithmType;
+import ar.edu.itba.steganography.LSBICodec;
+import ar.edu.itba.steganography.LSBNCodec;
+import ar.edu.itba.steganography.StegoCodec;
+import ar.edu.itba.utils.ImageUtils;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * Images and codecs shared by the tests of every package.
+ */
+public final class TestFixtures {
+
+    private TestFixtures() {
+    }
+
+    /**
+     * @return A 24 bit image of random pixels, always the same ones for the same size. Widths that are not a multiple
+     * of 4 pixels give rows with padding.
+     */
+    public static Image createCoverImage(int width, int height) {
+        var random = new Random(width * 31L + height);
+        var image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt(1 << 24));
+            }
+        }
+        return ImageUtils.fromBufferedImage(image);
+    }
+
+    /**
+     * @return An uncompressed bitmap of random pixels with any number of bits per pixel, and no palette.
+     */
+    public static Image createBitmap(int width, int height, int bitsPerPixel) throws IOException {
+        var rowSize = (width * bitsPerPixel + 31) / 32 * 4;
+        var body = new byte[rowSize * height];
+        new Random(width * 31L + height).nextBytes(body);
+        var header = ByteBuffer.allocate(54).order(ByteOrder.LITTLE_ENDIAN)
+          .put((byte) 'B').put((byte) 'M')
+          .putInt(54 + body.length)
+          .putInt(0)
+          .putInt(54)
+          .putInt(40)
+          .putInt(width)
+          .putInt(height)
+          .putShort((short) 1)
+          .putShort((short) bitsPerPixel)
+          .putInt(0)
+          .putInt(body.length)
+          .putInt(2835)
+          .putInt(2835)
+          .putInt(0)
+          .putInt(0);
+        return new Image(new SequenceInputStream(new ByteArrayInputStream(header.array()), new ByteArrayInputStream(body)));
+    }
+
+    public static StegoCodec createStegoCodec(SteganographyAlgorithmType algo) {
+        return switch (algo) {
+            case SteganographyAlgorithmType.LSB1 -> new LSBNCodec(1);
+            case SteganographyAlgorithmType.LSB4 -> new LSBNCodec(4);
+            case SteganographyAlgorithmType.LSBI -> new LSBICodec();
+        };
+    }
+}
@@ -0,0 +1,42 @@
+package ar.edu.itba.compression;
+
+import ar.edu.itba.FileCodec;
+import ar.edu.itba.config.SteganographyAlgorithmType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static ar.edu.itba.TestFixtures.createCoverImage;
+import static ar.edu.itba.TestFixtures.createStegoCodec;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompressionTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testCompressedMessagesRoundTrip() throws Exception {
+        var secret = directory.resolve("secret.txt");
+        Files.writeString(secret, "Hello, compression! ".repeat(500));
+        var cover = createCoverImage(101, 77).save(directory.resolve("cover.bmp").toFile());
+
+        for (var algo : SteganographyAlgorithmType.values()) {
+            var plainCodec = new FileCodec(createStegoCodec(algo), null);
+            var codec = new FileCodec(createStegoCodec(algo), null, new DeflateCompression());
+            assertTrue(
+              codec.messageSize(secret.toFile()) < plainCodec.messageSize(secret.toFile()) / 4,
+              "Repetitive text should compress."
+            );
+
+            var stego = codec.embed(secret.toFile(), cover, directory.resolve("stego.bmp").toFile(), null);
+            // Compression is detected from the message, the extracting codec does not need to know about it
+            var extracted = plainCodec.extract(stego, directory.resolve("extracted").toFile(), null);
+
+            assertEquals("extracted.txt", extracted.getName());
+            assertArrayEquals(Files.readAllBytes(secret), Files.readAllBytes(extracted.toPath()), "Round trip with " + algo);
+        }
+    }
+}
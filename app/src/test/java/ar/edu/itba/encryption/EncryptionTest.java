@@ -5,8 +5,14 @@ import ar.edu.itba.config.EncryptionMode;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -26,6 +32,9 @@ public class EncryptionTest {
                 continue;
             }
             for(var mode : EncryptionMode.values()) {
+                if (!EncryptionCodec.supports(algorithm, mode)) {
+                    continue;
+                }
                 System.out.printf("Testing with Alg: %s || Mode: %s%n", algorithm.algorithmName(), mode.value());
                 var cipher = new EncryptionCodec(algorithm, mode);
 
@@ -63,6 +72,9 @@ public class EncryptionTest {
                 continue;
             }
             for (var mode : EncryptionMode.values()) {
+                if (!EncryptionCodec.supports(algorithm, mode)) {
+                    continue;
+                }
                 System.out.printf("Testing with Alg: %s || Mode: %s%n", algorithm.algorithmName(), mode.value());
                 var cipher = new EncryptionCodec(algorithm, mode);
 
@@ -81,4 +93,108 @@ public class EncryptionTest {
             }
         }
     }
+
+    @Test
+    public void testStreamEncryptionMatchesByteArrays() throws Exception {
+        for(var algorithm : EncryptionAlgorithmType.values()) {
+            if(algorithm.equals(EncryptionAlgorithmType.PLAIN_TEXT)){
+                continue;
+            }
+            for (var mode : EncryptionMode.values()) {
+                if (!EncryptionCodec.supports(algorithm, mode)) {
+                    continue;
+                }
+                System.out.printf("Testing with Alg: %s || Mode: %s%n", algorithm.algorithmName(), mode.value());
+                var cipher = new EncryptionCodec(algorithm, mode);
+
+                var originalBytes = ("Hello, " + algorithm.algorithmName() + "!").repeat(100).getBytes(CHARSET);
+                var password = "password";
+
+                var encryptedBytes = cipher.encrypt(originalBytes, password);
+                var streamedBytes = cipher.encrypt(new ByteArrayInputStream(originalBytes), password).readAllBytes();
+
+                if (!EncryptionCodec.isAuthenticated(algorithm, mode)) {
+                    assertArrayEquals(encryptedBytes, streamedBytes, "Streamed encryption should match the byte array one.");
+                }
+                assertArrayEquals(originalBytes, cipher.decrypt(streamedBytes, password), "Streamed encryption should decrypt as a byte array.");
+                assertEquals(encryptedBytes.length, cipher.encryptedLength(originalBytes.length), "Encrypted length should be predictable.");
+
+                var decryptedBytes = cipher.decrypt(new ByteArrayInputStream(streamedBytes), password).readAllBytes();
+
+                assertArrayEquals(originalBytes, decryptedBytes, "Streamed decryption should recover the original.");
+            }
+        }
+    }
+
+    @Test
+    public void testDerivedKeysAreCached() throws Exception {
+        var cache = EncryptionCodec.keyCache();
+        var cipher = new EncryptionCodec(EncryptionAlgorithmType.AES256, EncryptionMode.CBC);
+        var originalBytes = "Hello, cache!".getBytes(CHARSET);
+        var password = "cached password";
+
+        var encryptedBytes = cipher.encrypt(originalBytes, password);
+        var hits = cache.hitCount();
+        var misses = cache.missCount();
+
+        assertArrayEquals(originalBytes, new EncryptionCodec(EncryptionAlgorithmType.AES256, EncryptionMode.CBC).decrypt(encryptedBytes, password));
+        assertEquals(hits + 1, cache.hitCount(), "Same parameters should be served from the cache.");
+        assertEquals(misses, cache.missCount(), "Same parameters should not derive the key again.");
+
+        cipher.encrypt(originalBytes, "another password");
+        assertEquals(misses + 1, cache.missCount(), "A different password should derive a new key.");
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertArrayEquals(encryptedBytes, cipher.encrypt(originalBytes, password), "Keys derived again should be the same.");
+    }
+
+    @Test
+    public void testCodecCanBeSharedBetweenThreads() throws Exception {
+        var cipher = new EncryptionCodec(EncryptionAlgorithmType.AES128, EncryptionMode.CBC);
+        var password = "password";
+        var executor = Executors.newFixedThreadPool(8);
+        try {
+            var tasks = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < 64; i++) {
+                var originalBytes = ("Hello, thread " + i + "!").repeat(i + 1).getBytes(CHARSET);
+                tasks.add(executor.submit(() -> {
+                    var encryptedBytes = cipher.encrypt(originalBytes, password);
+                    return Arrays.equals(originalBytes, cipher.decrypt(encryptedBytes, password));
+                }));
+            }
+            for (var task : tasks) {
+                assertTrue(task.get(), "Concurrent round trips on one codec should recover the original.");
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testAuthenticatedModesDetectTampering() throws Exception {
+        var ciphers = new EncryptionCodec[] {
+          new EncryptionCodec(EncryptionAlgorithmType.AES256, EncryptionMode.GCM),
+          new EncryptionCodec(EncryptionAlgorithmType.CHACHA20, EncryptionMode.CBC),
+        };
+        for (var cipher : ciphers) {
+            var originalBytes = "Hello, tamper detection!".getBytes(CHARSET);
+            var password = "password";
+
+            var encryptedBytes = cipher.encrypt(originalBytes, password);
+            assertFalse(Arrays.equals(encryptedBytes, cipher.encrypt(originalBytes, password)), "Every message should get a new nonce.");
+
+            assertThrows(RuntimeException.class, () -> cipher.decrypt(encryptedBytes, "wrong password"));
+
+            var tampered = encryptedBytes.clone();
+            tampered[tampered.length / 2] ^= 1;
+            assertThrows(RuntimeException.class, () -> cipher.decrypt(tampered, password));
+            assertThrows(IOException.class, () -> cipher.decrypt(new ByteArrayInputStream(tampered), password).readAllBytes());
+            // Decrypting buffers the whole message, so its length is bounded
+            assertTrue(cipher.isAuthenticated());
+            assertTrue(cipher.maxEncryptedLength() < Long.MAX_VALUE, "Authenticated messages should be limited.");
+        }
+        assertEquals(Long.MAX_VALUE, new EncryptionCodec(EncryptionAlgorithmType.AES256, EncryptionMode.CBC).maxEncryptedLength());
+        assertThrows(IllegalArgumentException.class, () -> new EncryptionCodec(EncryptionAlgorithmType._3DES, EncryptionMode.GCM));
+    }
 }
@@ -0,0 +1,54 @@
+package ar.edu.itba.steganalysis;
+
+import ar.edu.itba.Image;
+import ar.edu.itba.config.SteganographyAlgorithmType;
+import ar.edu.itba.utils.ImageUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static ar.edu.itba.TestFixtures.createStegoCodec;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SteganalyzerTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testSteganalysisFindsFullEmbeddings() throws Exception {
+        // A smooth cover with only even values, so none of its pairs of values is even
+        var image = new BufferedImage(200, 150, BufferedImage.TYPE_3BYTE_BGR);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                var value = (int) (128 + 100 * Math.sin(x / 9.0) * Math.cos(y / 7.0));
+                image.setRGB(x, y, value << 16 | (255 - value) << 8 | (value / 2 + 64));
+            }
+        }
+        var cover = ImageUtils.fromBufferedImage(image).save(directory.resolve("cover.bmp").toFile());
+        var analyzer = new Steganalyzer();
+        var coverReport = analyzer.analyze(cover);
+        assertNull(coverReport.method(), "The cover should look clean.");
+        for (var ratio : coverReport.patternFlipRatio()) {
+            assertEquals(0, ratio, 0.05, "No LSB of the cover should look flipped.");
+        }
+
+        for (var algo : SteganographyAlgorithmType.values()) {
+            var codec = createStegoCodec(algo);
+            var secret = new byte[(int) codec.capacity(Image.open(cover))];
+            new Random(7).nextBytes(secret);
+            var stego = codec.encode(secret, Image.open(cover)).save(directory.resolve(algo + ".bmp").toFile());
+
+            var report = analyzer.analyze(stego);
+            assertEquals(algo, report.method());
+            assertTrue(report.score() > 0.9, "Almost the whole image should look used by " + algo + ": " + report.score());
+            // Random data flips half of the LSBs it replaces, and LSBI never more than that in any group
+            for (var ratio : report.patternFlipRatio()) {
+                assertEquals(0.5, ratio, 0.1, "Half of the LSBs of every pattern should look flipped by " + algo);
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package ar.edu.itba.steganography;
+
+import ar.edu.itba.utils.ImageUtils;
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.BitSet;
+import java.util.Random;
+
+import static ar.edu.itba.TestFixtures.createCoverImage;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LSBICodecTest {
+
+    private static int getPattern(int b) {
+        return b >>> 1 & 0b11;
+    }
+
+    /**
+     * The LSBI embedding this codec replaced, which went through AWT colors pixel by pixel. Images embedded by either
+     * one must stay readable by the other.
+     */
+    private static BufferedImage referenceEncode(byte[] secret, BufferedImage coverImage) {
+        var width = coverImage.getWidth();
+        var stegoImage = ImageUtils.deepCopy(coverImage);
+        var secretBits = BitSet.valueOf(secret);
+        var swapped = new int[4];
+        var total = new int[4];
+
+        // Count the flips of every pattern, starting on the green channel of the second pixel of the bottom row
+        int x = 1, y = coverImage.getHeight() - 1, c = 1;
+        var p = new Color(coverImage.getRGB(x++, y));
+        for (int i = 0; i < secret.length * 8; i++) {
+            int bit = secretBits.get(7 - i % 8 + i / 8 * 8) ? 1 : 0;
+            if (c == 0) {
+                p = new Color(coverImage.getRGB(x++, y));
+                if (x == width) {
+                    x = 0;
+                    y--;
+                }
+            }
+            var imageByte = c == 0 ? p.getBlue() : p.getGreen();
+            total[getPattern(imageByte)]++;
+            if ((imageByte & 1) != bit) {
+                swapped[getPattern(imageByte)]++;
+            }
+            c = (c + 1) % 2;
+        }
+        var swappedPatterns = new boolean[4];
+        for (int pattern = 0; pattern < 4; pattern++) {
+            swappedPatterns[pattern] = swapped[pattern] > total[pattern] / 2;
+        }
+
+        // The flags of patterns 00, 01 and 10 go in the first pixel, the one of 11 in the blue channel of the second.
+        // The original took the upper bits of the first pixel from the last one counted, the codec keeps its own.
+        y = coverImage.getHeight() - 1;
+        var first = new Color(coverImage.getRGB(0, y));
+        stegoImage.setRGB(0, y, new Color(
+          (first.getRed() & 0xFE) | (swappedPatterns[0b10] ? 1 : 0),
+          (first.getGreen() & 0xFE) | (swappedPatterns[0b01] ? 1 : 0),
+          (first.getBlue() & 0xFE) | (swappedPatterns[0b00] ? 1 : 0)
+        ).getRGB());
+        var colors = new int[2];
+        x = 1;
+        colors[0] = swappedPatterns[0b11] ^ swappedPatterns[getPattern(new Color(coverImage.getRGB(x, y)).getBlue())] ? 1 : 0;
+        c = 1;
+
+        for (int i = 0; i < secret.length * 8; i++) {
+            colors[c++] = secretBits.get(7 - i % 8 + i / 8 * 8) ? 1 : 0;
+            if (c < 2) {
+                continue;
+            }
+            c = 0;
+            var pixel = new Color(coverImage.getRGB(x, y));
+            var b = (pixel.getBlue() & 0xFE) | (swappedPatterns[getPattern(pixel.getBlue())] ? colors[0] ^ 1 : colors[0]);
+            var g = (pixel.getGreen() & 0xFE) | (swappedPatterns[getPattern(pixel.getGreen())] ? colors[1] ^ 1 : colors[1]);
+            stegoImage.setRGB(x, y, new Color(pixel.getRed(), g, b).getRGB());
+            if (++x == width) {
+                x = 0;
+                y--;
+            }
+        }
+        if (c == 1) {
+            var pixel = new Color(coverImage.getRGB(x, y));
+            var b = (pixel.getBlue() & 0xFE) | (swappedPatterns[getPattern(pixel.getBlue())] ? colors[0] ^ 1 : colors[0]);
+            stegoImage.setRGB(x, y, new Color(pixel.getRed(), pixel.getGreen(), b).getRGB());
+        }
+        return stegoImage;
+    }
+
+    @Test
+    public void testStegoImagesMatchTheReferenceEmbedding() throws Exception {
+        var codec = new LSBICodec();
+        // Odd sizes give padded rows and an odd number of data slots, secrets above 16 KB run in parallel
+        for (var length : new int[]{1, 999, 40_000}) {
+            var secret = new byte[length];
+            new Random(length).nextBytes(secret);
+            var cover = createCoverImage(1001, 301);
+            var expected = ImageUtils.fromBufferedImage(referenceEncode(secret, ImageUtils.toBufferedImage(cover))).getBody();
+
+            var stego = codec.encode(secret, cover).getBody();
+            assertEquals(expected.length, stego.length);
+            assertArrayEquals(expected, stego, "Stego image should match the reference with " + length + " bytes.");
+            assertArrayEquals(secret, codec.decode(cover, 0, length));
+        }
+    }
+}
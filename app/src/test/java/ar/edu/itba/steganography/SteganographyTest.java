@@ -1,20 +1,32 @@
 package ar.edu.itba.steganography;
 
 import ar.edu.itba.FileCodec;
+import ar.edu.itba.Image;
 import ar.edu.itba.config.EncryptionAlgorithmType;
+import ar.edu.itba.config.EncryptionMode;
 import ar.edu.itba.config.ProgramConfig;
 import ar.edu.itba.config.SteganographyAlgorithmType;
 import ar.edu.itba.encryption.EncryptionCodec;
+import ar.edu.itba.steganography.exceptions.SecretTooLargeException;
+import ar.edu.itba.utils.DataUtils;
+import com.google.common.io.ByteSource;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.nio.file.Path;
 import java.nio.file.Files;
 import java.util.stream.Stream;
 
+import static ar.edu.itba.TestFixtures.createCoverImage;
+import static ar.edu.itba.TestFixtures.createStegoCodec;
 import static org.junit.jupiter.api.Assertions.*;
 
 public class SteganographyTest {
@@ -23,6 +35,9 @@ public class SteganographyTest {
     private static final String TEST_RESULTS_BASE_PATH = "/results";
     private static final List<String> IMAGE_GROUPS = List.of("basic", "encrypted", "final");
 
+    @TempDir
+    Path directory;
+
     @BeforeEach
     public void setUp() {
     }
@@ -58,11 +73,7 @@ public class SteganographyTest {
 
     private void callCodec(ProgramConfig config) {
         var codec = new FileCodec(
-          switch (config.steg()) {
-              case SteganographyAlgorithmType.LSB1 -> new LSBNCodec(1);
-              case SteganographyAlgorithmType.LSB4 -> new LSBNCodec(4);
-              case SteganographyAlgorithmType.LSBI -> new LSBICodec();
-          },
+          createStegoCodec(config.steg()),
           config.enc().equals(EncryptionAlgorithmType.PLAIN_TEXT) ?
             null :
             new EncryptionCodec(config.enc(), config.mode())
@@ -112,4 +123,151 @@ public class SteganographyTest {
             outputFiles.stream().flatMap(f -> Stream.of(f, new File(f.getAbsolutePath() + ".png"))).forEach(File::delete);
         }
     }
+
+    @Test
+    public void testDecodeMessageReadsOnlyTheMessage() throws Exception {
+        var payload = "Hello, stego!".repeat(20).getBytes();
+        var message = new byte[4 + payload.length];
+        DataUtils.intToBytes(payload.length, message, 0);
+        System.arraycopy(payload, 0, message, 4, payload.length);
+
+        for (var algo : SteganographyAlgorithmType.values()) {
+            var codec = createStegoCodec(algo);
+            // Odd width so that rows are padded
+            var stegoImage = codec.encode(message, createCoverImage(101, 77));
+
+            assertArrayEquals(payload, codec.decodeMessage(stegoImage), "Decoded message should match the payload with " + algo);
+            assertArrayEquals(
+              Arrays.copyOfRange(message, 10, 60),
+              codec.decode(stegoImage, 10, 50),
+              "Decoded range should match the message."
+            );
+            assertThrows(IndexOutOfBoundsException.class, () -> codec.decode(stegoImage, codec.capacity(stegoImage), 1));
+
+            for (var buffer : List.of(ByteBuffer.allocate(60).position(10), ByteBuffer.allocateDirect(50))) {
+                codec.decode(stegoImage, 10, buffer);
+                assertFalse(buffer.hasRemaining(), "The buffer should be filled.");
+                var decoded = new byte[50];
+                buffer.position(buffer.position() - 50).get(decoded);
+                assertArrayEquals(Arrays.copyOfRange(message, 10, 60), decoded, "Decoded buffer should match the message.");
+            }
+        }
+    }
+
+    @Test
+    public void testSecretsMayFillTheCapacity() throws Exception {
+        for (var algo : SteganographyAlgorithmType.values()) {
+            var codec = createStegoCodec(algo);
+            // Bodies of 23408 and 36 bytes, the second one is not a whole number of words
+            for (var size : new int[][]{{101, 77}, {3, 3}}) {
+                var capacity = (int) codec.capacity(createCoverImage(size[0], size[1]));
+                var secret = new byte[capacity];
+                new Random(capacity).nextBytes(secret);
+
+                var stegoImage = codec.encode(secret, createCoverImage(size[0], size[1]));
+                assertArrayEquals(secret, codec.decode(stegoImage, 0, capacity), "Round trip of a full " + algo + " cover");
+                assertArrayEquals(
+                  stegoImage.getBody(),
+                  codec.encode(ByteSource.wrap(secret), createCoverImage(size[0], size[1])).getBody(),
+                  "Embedding from a stream should give the same image with " + algo
+                );
+                assertThrows(SecretTooLargeException.class, () -> codec.encode(new byte[capacity + 1], createCoverImage(size[0], size[1])));
+            }
+        }
+    }
+
+    /** The original LSBN embedding, a byte of the body at a time from the first one */
+    private static byte[] referenceLsbnEncode(byte[] secret, byte[] body, int n) {
+        var stego = body.clone();
+        int b = 0;
+        for (byte s : secret) {
+            for (int i = 8 / n - 1; i >= 0; i--) {
+                stego[b] = (byte) ((stego[b] & 0xFF << n) | (s >>> (n * i) & 0xFF >>> (8 - n)));
+                b++;
+            }
+        }
+        return stego;
+    }
+
+    @Test
+    public void testLargeSecretsRoundTripInParallel() throws Exception {
+        for (var algo : SteganographyAlgorithmType.values()) {
+            var codec = createStegoCodec(algo);
+            // Odd width so that rows are padded, and secrets well above the 64 KB and 16 KB parallel thresholds
+            var cover = createCoverImage(1001, 301);
+            var secret = new byte[(int) (codec.capacity(cover) * 9 / 10)];
+            new Random(secret.length).nextBytes(secret);
+            assertTrue(secret.length > 64 * 1024, "The secret should be split with " + algo);
+
+            var stegoImage = codec.encode(secret, createCoverImage(1001, 301));
+            if (codec instanceof LSBNCodec) {
+                var n = algo == SteganographyAlgorithmType.LSB1 ? 1 : 4;
+                assertArrayEquals(referenceLsbnEncode(secret, cover.getBody(), n), stegoImage.getBody(), "Stego image should match the reference with " + algo);
+            }
+            var streamed = codec.encode(ByteSource.wrap(secret), createCoverImage(1001, 301));
+            assertArrayEquals(stegoImage.getBody(), streamed.getBody(), "Embedding from a stream should give the same image with " + algo);
+
+            assertArrayEquals(secret, codec.decode(stegoImage, 0, secret.length), "Round trip with " + algo);
+            assertArrayEquals(
+              Arrays.copyOfRange(secret, 12_345, secret.length - 1),
+              codec.decode(stegoImage, 12_345, secret.length - 12_346),
+              "Decoded range should match the secret with " + algo
+            );
+        }
+    }
+
+    /** A source that reports a size other than the length of its stream, like a file that changes while embedding */
+    private static ByteSource withSize(byte[] bytes, long size) {
+        return new ByteSource() {
+            @Override
+            public InputStream openStream() {
+                return new ByteArrayInputStream(bytes);
+            }
+
+            @Override
+            public long size() {
+                return size;
+            }
+        };
+    }
+
+    @Test
+    public void testSecretsMustMatchTheirSize() throws Exception {
+        var secret = new byte[1000];
+        new Random(5).nextBytes(secret);
+        for (var algo : SteganographyAlgorithmType.values()) {
+            var codec = createStegoCodec(algo);
+            assertThrows(EOFException.class, () -> codec.encode(withSize(secret, secret.length + 1), createCoverImage(101, 77)),
+              "A secret shorter than its size should be rejected by " + algo);
+
+            // Only the given size is embedded, whatever follows it
+            var stegoImage = codec.encode(withSize(secret, 600), createCoverImage(101, 77));
+            var expected = codec.encode(Arrays.copyOf(secret, 600), createCoverImage(101, 77));
+            assertArrayEquals(expected.getBody(), stegoImage.getBody(), "Only the size of the secret should be embedded by " + algo);
+        }
+    }
+
+    @Test
+    public void testSwapFlagsMatchAuthenticatedMessages() throws Exception {
+        var secret = directory.resolve("secret.bin");
+        var bytes = new byte[1000];
+        new Random(11).nextBytes(bytes);
+        Files.write(secret, bytes);
+        var cover = createCoverImage(101, 77).save(directory.resolve("cover.bmp").toFile());
+
+        for (var algorithm : List.of(EncryptionAlgorithmType.AES128, EncryptionAlgorithmType.CHACHA20)) {
+            var codec = new FileCodec(new LSBICodec(), new EncryptionCodec(algorithm, EncryptionMode.GCM));
+            var stego = codec.embed(secret.toFile(), cover, directory.resolve("stego.bmp").toFile(), "password");
+
+            // Every encryption draws a new nonce, the flags must come from the ciphertext that was embedded
+            var embedded = new LSBICodec().decode(Image.open(stego), 0, (int) codec.messageSize(secret.toFile()));
+            assertArrayEquals(
+              new LSBICodec().encode(embedded, Image.open(cover)).getBody(),
+              Image.open(stego).getBody(),
+              "Embedding the ciphertext again should give the same image."
+            );
+            var extracted = codec.extract(stego, directory.resolve("extracted").toFile(), "password");
+            assertArrayEquals(bytes, Files.readAllBytes(extracted.toPath()));
+        }
+    }
 }
@@ -0,0 +1,28 @@
+#!/bin/bash
+# Compares the startup time and peak memory of the shadow jar and the native executable on a LSB1 extract.
+# Build both first: ./gradlew shadowJar nativeCompile
+# Usage: ./bench_startup.sh <stego-image.bmp> [runs]
+
+set -e
+
+image=${1:?Usage: $0 <stego-image.bmp> [runs]}
+runs=${2:-20}
+jar=app/build/libs/app-all.jar
+native=app/build/native/nativeCompile/stegobmp
+output=$(mktemp -d)
+trap 'rm -rf "$output"' EXIT
+
+measure() {
+    local name=$1
+    shift
+    for ((i = 0; i < runs; i++)); do
+        # GNU time prints the elapsed seconds and the peak resident set size in KiB
+        /usr/bin/time -f "%e %M" "$@" -extract -p "$image" -out "$output/extracted" -steg LSB1 \
+            2>&1 >/dev/null | tail -n 1
+    done | awk -v name="$name" '
+        { seconds += $1; if ($2 > rss) rss = $2 }
+        END { printf "%-8s mean %6.0f ms   peak RSS %6d KiB\n", name, seconds * 1000 / NR, rss }'
+}
+
+measure jar java --enable-preview -jar "$jar"
+measure native "$native"